@@ -0,0 +1,26 @@
+#!/bin/sh
+#
+# Compile and run the benchmarks against the compiled application classes.
+#
+# Usage: benchmarks/run.sh [main class] [arguments]
+#
+# The application classes are taken from the IntelliJ build output, set PHOTON_CLASSES to use another
+# directory or jar. Everything runs offline, the benchmarks only use synthetic data.
+
+DIR=$(cd "$(dirname "$0")" && pwd)
+PHOTON_CLASSES=${PHOTON_CLASSES:-$DIR/../out/production/PhotonFileValidator}
+BUILD=$DIR/build
+
+if [ ! -e "$PHOTON_CLASSES" ]; then
+    echo "The application classes are not found at $PHOTON_CLASSES, build the project or set PHOTON_CLASSES" >&2
+    exit 2
+fi
+
+MAIN=photon.benchmark.LayerBenchmarks
+case "$1" in
+    photon.benchmark.*) MAIN=$1; shift ;;
+esac
+
+mkdir -p "$BUILD/files"
+javac -d "$BUILD" -cp "$PHOTON_CLASSES" $(find "$DIR/src" -name '*.java') || exit 2
+exec java ${JAVA_OPTS:--Xmx4g} -Dphoton.benchmark.directory="$BUILD/files" -cp "$BUILD:$PHOTON_CLASSES" "$MAIN" "$@"
@@ -0,0 +1,215 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.benchmark;
+
+import photon.file.PhotonFile;
+import photon.file.parts.IPhotonProgress;
+import photon.file.parts.PhotonAaMatrix;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Times loading, calculating, fixing, anti aliasing and saving a whole file, generated with SyntheticPhotonFile.
+ * <p/>
+ * Every phase reports the wall time, the peak heap in use and the allocation rate, so the benchmark can be used to
+ * size the hosts running the validation and to see how the phases scale with the resolution and the layer count.
+ * <p/>
+ * Usage: FileBenchmark [--resolution 1440p|4k|WIDTHxHEIGHT] [--layers n] [--aa 1|2|4|8|16] [--islands specks per layer]
+ * [--seed n] [--warmup n] [--runs n] [--directory dir] [--keep]
+ */
+public class FileBenchmark {
+    private static final IPhotonProgress NO_PROGRESS = str -> { };
+    private static final String[] PHASES = {"readFile", "calculate", "fixAll", "calculateAaLayers", "saveFile"};
+
+    private interface Phase {
+        void run(PhotonFile photonFile) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int width = 1440;
+        int height = 2560;
+        int layers = 200;
+        int aaLevels = 1;
+        double islands = 0.5;
+        long seed = 1;
+        int warmup = 1;
+        int runs = 3;
+        File directory = new File(System.getProperty("photon.benchmark.directory", System.getProperty("java.io.tmpdir")));
+        boolean keep = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--resolution":
+                        String resolution = args[++i].toLowerCase(Locale.ROOT);
+                        if (resolution.equals("4k")) {
+                            width = 3840;
+                            height = 2400;
+                        } else if (!resolution.equals("1440p")) {
+                            String[] size = resolution.split("x");
+                            width = Integer.parseInt(size[0]);
+                            height = Integer.parseInt(size[1]);
+                        }
+                        break;
+                    case "--layers":
+                        layers = Integer.parseInt(args[++i]);
+                        break;
+                    case "--aa":
+                        aaLevels = Integer.parseInt(args[++i]);
+                        break;
+                    case "--islands":
+                        islands = Double.parseDouble(args[++i]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+                    case "--warmup":
+                        warmup = Integer.parseInt(args[++i]);
+                        break;
+                    case "--runs":
+                        runs = Integer.parseInt(args[++i]);
+                        break;
+                    case "--directory":
+                        directory = new File(args[++i]);
+                        break;
+                    case "--keep":
+                        keep = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+            if (width < 16 || height < 16 || layers < 1 || runs < 1 || warmup < 0 || islands < 0 || !(aaLevels == 1 || aaLevels == 2 || aaLevels == 4 || aaLevels == 8 || aaLevels == 16)) {
+                throw new IllegalArgumentException("value out of range");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Invalid argument: " + e.getMessage());
+            System.err.println("Usage: FileBenchmark [--resolution 1440p|4k|WIDTHxHEIGHT] [--layers n] [--aa 1|2|4|8|16] [--islands specks per layer] [--seed n] [--warmup n] [--runs n] [--directory dir] [--keep]");
+            System.exit(2);
+        }
+
+        SyntheticPhotonFile syntheticFile = new SyntheticPhotonFile(width, height, layers, aaLevels, islands, seed);
+        String name = String.format(Locale.ROOT, "synthetic-%dx%d-%d-aa%d", width, height, layers, aaLevels);
+        File input = new File(directory, name + syntheticFile.getExtension());
+        File output = new File(directory, name + "-saved" + syntheticFile.getExtension());
+
+        long start = System.nanoTime();
+        syntheticFile.write(input);
+        System.out.println(String.format(Locale.ROOT, "Generated %s, %.1f MB in %.1f s", input, input.length() / 1048576.0, (System.nanoTime() - start) / 1e9));
+        System.out.println(String.format(Locale.ROOT, "%dx%d, %d layers, AA %d, %.2f islands per layer, %d processors, %.0f MB max heap",
+                width, height, layers, aaLevels, islands, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() / 1048576.0));
+
+        final int aa = aaLevels;
+        final PhotonAaMatrix photonAaMatrix = SyntheticLayers.createAaMatrix();
+        Phase[] phases = {
+                photonFile -> photonFile.readFile(input, NO_PROGRESS),
+                photonFile -> {
+                    photonFile.calculate(NO_PROGRESS);
+                    // the island layers are listed after a calculation, and fixAll works on the list
+                    photonFile.getIslandLayerCount();
+                },
+                photonFile -> photonFile.fixAll(NO_PROGRESS),
+                photonFile -> {
+                    if (aa > 1) {
+                        photonFile.calculateAaLayers(NO_PROGRESS, photonAaMatrix);
+                    }
+                },
+                photonFile -> photonFile.saveFile(output)
+        };
+
+        List<long[][]> results = new ArrayList<>();
+        ResourceSampler sampler = new ResourceSampler();
+        try {
+            for (int run = 0; run < warmup + runs; run++) {
+                long[][] result = new long[phases.length][];
+                PhotonFile photonFile = new PhotonFile();
+                for (int p = 0; p < phases.length; p++) {
+                    System.gc();
+                    sampler.start();
+                    long phaseStart = System.nanoTime();
+                    phases[p].run(photonFile);
+                    long nanos = System.nanoTime() - phaseStart;
+                    sampler.stop();
+                    result[p] = new long[]{nanos, sampler.getPeakHeap(), sampler.getAllocatedBytes()};
+                }
+                photonFile.unLink();
+                if (run >= warmup) {
+                    results.add(result);
+                }
+                System.out.println(String.format(Locale.ROOT, "%s %d: %.1f s, %d island layers left", run < warmup ? "Warmup" : "Run", run < warmup ? run + 1 : run - warmup + 1,
+                        total(result) / 1e9, countIslands(output)));
+            }
+        } finally {
+            if (!keep) {
+                Files.deleteIfExists(input.toPath());
+                Files.deleteIfExists(output.toPath());
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-18s %10s %10s %10s %12s %12s %12s", "Phase", "Mean ms", "Min ms", "Layers/s", "Peak heap MB", "Alloc MB", "Alloc MB/s"));
+        for (int p = 0; p < phases.length; p++) {
+            if (p == 3 && aaLevels == 1) {
+                continue;
+            }
+            long sum = 0;
+            long min = Long.MAX_VALUE;
+            long peak = 0;
+            long allocated = 0;
+            for (long[][] result : results) {
+                sum += result[p][0];
+                min = Long.min(min, result[p][0]);
+                peak = Long.max(peak, result[p][1]);
+                allocated += result[p][2];
+            }
+            double mean = (double) sum / results.size();
+            System.out.println(String.format(Locale.ROOT, "%-18s %10.1f %10.1f %10.1f %12.1f %12.1f %12.1f", PHASES[p],
+                    mean / 1e6, min / 1e6, layers / (mean / 1e9), peak / 1048576.0,
+                    allocated < 0 ? Double.NaN : allocated / 1048576.0 / results.size(),
+                    allocated < 0 ? Double.NaN : allocated / 1048576.0 / (sum / 1e9)));
+        }
+    }
+
+    private static long total(long[][] result) {
+        long total = 0;
+        for (long[] phase : result) {
+            total += phase[0];
+        }
+        return total;
+    }
+
+    private static int countIslands(File file) throws Exception {
+        PhotonFile photonFile = new PhotonFile();
+        photonFile.setMemoryMapped(false);
+        photonFile.readFile(file, NO_PROGRESS);
+        photonFile.calculate(NO_PROGRESS);
+        int islands = photonFile.getIslandLayerCount();
+        photonFile.unLink();
+        return islands;
+    }
+}
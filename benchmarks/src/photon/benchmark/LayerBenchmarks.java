@@ -0,0 +1,156 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.benchmark;
+
+import photon.file.parts.PhotonAaMatrix;
+import photon.file.parts.PhotonBitLayer;
+import photon.file.parts.PhotonFileLayer;
+import photon.file.parts.PhotonLayer;
+
+import java.util.Locale;
+
+/**
+ * Benchmarks of the layer codecs and the island calculation, on synthetic layers of the photon and 4K resolutions.
+ * <p/>
+ * Usage: LayerBenchmarks [--quick] [--filter text] [--resolution 1440p|4k] [--pattern empty|solid|supports|model|noise]
+ */
+public class LayerBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        boolean quick = false;
+        String filter = null;
+        String resolutionName = null;
+        String patternName = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--quick":
+                    quick = true;
+                    break;
+                case "--filter":
+                    filter = args[++i];
+                    break;
+                case "--resolution":
+                    resolutionName = args[++i].toLowerCase(Locale.ROOT);
+                    break;
+                case "--pattern":
+                    patternName = args[++i].toUpperCase(Locale.ROOT);
+                    break;
+                default:
+                    System.err.println("Usage: LayerBenchmarks [--quick] [--filter text] [--resolution 1440p|4k] [--pattern empty|solid|supports|model|noise]");
+                    System.exit(2);
+            }
+        }
+
+        MicroBenchmark benchmark = quick ? new MicroBenchmark(1, 3, 100, filter) : new MicroBenchmark(3, 5, 500, filter);
+        System.out.println(String.format(Locale.ROOT, "%-48s %12s %12s %14s", "Benchmark", "Time", "Error", "Allocated"));
+        for (SyntheticLayers.Resolution resolution : SyntheticLayers.Resolution.values()) {
+            String name = resolution == SyntheticLayers.Resolution.UHD_4K ? "4k" : "1440p";
+            if (resolutionName != null && !resolutionName.equals(name)) {
+                continue;
+            }
+            for (SyntheticLayers.Pattern pattern : SyntheticLayers.Pattern.values()) {
+                if (patternName != null && !patternName.equals(pattern.name())) {
+                    continue;
+                }
+                run(benchmark, name + "/" + pattern.name().toLowerCase(Locale.ROOT) + "/", new SyntheticLayers(resolution, pattern));
+            }
+        }
+    }
+
+    private static void run(MicroBenchmark benchmark, String prefix, SyntheticLayers layers) throws Exception {
+        final int width = layers.getWidth();
+        final int height = layers.getHeight();
+
+        // decoding of the file image data
+        final PhotonFileLayer fileLayer = layers.createFileLayer();
+        final long[] bitmap = new long[layers.getBitmap().length];
+        benchmark.run(prefix + "unpackImage.bitmap", () -> {
+            fileLayer.unpackImage(bitmap, width, height);
+            return bitmap;
+        });
+        benchmark.run(prefix + "unpackImage.bitset", () -> fileLayer.unpackImage(width, height));
+
+        // the full calculation of a layer on top of the layer below
+        final PhotonBitLayer bitLayer = new PhotonBitLayer(width, height);
+        final long[] previousBitmap = layers.getPreviousBitmap();
+        benchmark.run(prefix + "calculate", () -> {
+            fileLayer.calculate(bitmap, previousBitmap, 0, bitLayer);
+            return fileLayer.getPackedLayerImage();
+        });
+
+        // the editing layer, decoded from the packed image
+        final byte[] islandImage = layers.getIslandImage();
+        final byte[] calculatedImage = layers.getCalculatedImage();
+        final PhotonLayer photonLayer = new PhotonLayer(width, height);
+        benchmark.run(prefix + "unpackLayerImage", () -> {
+            photonLayer.unpackLayerImage(calculatedImage);
+            return photonLayer;
+        });
+        benchmark.run(prefix + "reduce", () -> photonLayer.unpackLayerImage(islandImage), () -> {
+            photonLayer.reduce();
+            return photonLayer;
+        });
+        benchmark.run(prefix + "fixlayer", () -> photonLayer.unpackLayerImage(calculatedImage), photonLayer::fixlayer);
+
+        photonLayer.unpackLayerImage(calculatedImage);
+        final ReferenceEncoders referenceEncoders = new ReferenceEncoders(photonLayer, width, height);
+        benchmark.run(prefix + "packLayerImage", photonLayer::packLayerImage);
+        benchmark.run(prefix + "packLayerImage.reference", referenceEncoders::packLayerImage);
+        benchmark.run(prefix + "packImageData", photonLayer::packImageData);
+        benchmark.run(prefix + "packImageData.reference", referenceEncoders::packImageData);
+        benchmark.run(prefix + "getRows", () -> PhotonLayer.getRows(calculatedImage, width, true));
+
+        // anti aliasing of the layer with a 3x3 blur
+        final PhotonAaMatrix photonAaMatrix = SyntheticLayers.createAaMatrix();
+        final int[][] image = toGreyscale(layers.getBitmap(), width, height);
+        final int[][] target = new int[height][width];
+        benchmark.run(prefix + "aaMatrix.calc", () -> {
+            photonAaMatrix.calc(image, target);
+            return target;
+        });
+        final int[] thresholds = {63, 126, 189};
+        final long[][] levels = new long[thresholds.length][layers.getBitmap().length];
+        benchmark.run(prefix + "aaMatrix.calc.edges", () -> {
+            photonAaMatrix.calc(layers.getBitmap(), width, height, thresholds, levels);
+            return levels;
+        });
+
+        photonLayer.unLink();
+        bitLayer.unLink();
+    }
+
+    private static int[][] toGreyscale(long[] bitmap, int width, int height) {
+        int words = (width + 63) >>> 6;
+        int[][] image = new int[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if ((bitmap[y * words + (x >>> 6)] & (1L << x)) != 0) {
+                    image[y][x] = 255;
+                }
+            }
+        }
+        return image;
+    }
+}
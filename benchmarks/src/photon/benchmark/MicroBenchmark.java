@@ -0,0 +1,141 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A small benchmark harness, timing an operation in warmup and measured iterations on the current thread.
+ * <p/>
+ * Each iteration repeats the operation until the iteration time has passed, and the results are consumed so the
+ * JIT can not remove the work. Allocations are measured with the thread allocation counter when the JVM has one.
+ */
+public class MicroBenchmark {
+    public interface Operation {
+        Object run() throws Exception;
+    }
+
+    public interface Setup {
+        void run() throws Exception;
+    }
+
+    private static volatile Object sink;
+
+    private int warmupIterations;
+    private int iterations;
+    private long iterationNanos;
+    private String filter;
+    private List<String> results = new ArrayList<>();
+
+    public MicroBenchmark(int warmupIterations, int iterations, long iterationMillis, String filter) {
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationNanos = iterationMillis * 1000000L;
+        this.filter = filter;
+    }
+
+    /**
+     * Time an operation, the setup is run before each operation and is not timed.
+     */
+    public void run(String name, Setup setup, Operation operation) throws Exception {
+        if (filter != null && !name.contains(filter)) {
+            return;
+        }
+
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(setup, operation);
+        }
+
+        double[] nanosPerOp = new double[iterations];
+        long allocated = 0;
+        long operations = 0;
+        for (int i = 0; i < iterations; i++) {
+            long[] iteration = iteration(setup, operation);
+            nanosPerOp[i] = (double) iteration[0] / iteration[1];
+            operations += iteration[1];
+            allocated += iteration[2];
+        }
+
+        double mean = 0;
+        for (double value : nanosPerOp) {
+            mean += value;
+        }
+        mean /= iterations;
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean);
+        }
+        double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+
+        String result = String.format(Locale.ROOT, "%-48s %12.3f ms/op +- %8.3f  %12.1f KB/op", name, mean / 1e6, error / 1e6,
+                allocated < 0 ? Double.NaN : allocated / 1024.0 / operations);
+        results.add(result);
+        System.out.println(result);
+    }
+
+    public void run(String name, Operation operation) throws Exception {
+        run(name, null, operation);
+    }
+
+    public List<String> getResults() {
+        return results;
+    }
+
+    /**
+     * @return the timed nanoseconds, the number of operations and the bytes allocated, or -1 if not available
+     */
+    private long[] iteration(Setup setup, Operation operation) throws Exception {
+        long timed = 0;
+        long count = 0;
+        long allocatedBefore = allocatedBytes();
+        long end = System.nanoTime() + iterationNanos;
+        do {
+            if (setup != null) {
+                setup.run();
+            }
+            long start = System.nanoTime();
+            sink = operation.run();
+            timed += System.nanoTime() - start;
+            count++;
+        } while (System.nanoTime() < end);
+        long allocatedAfter = allocatedBytes();
+        return new long[]{timed, count, allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore};
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
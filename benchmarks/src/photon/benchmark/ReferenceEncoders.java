@@ -0,0 +1,119 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.benchmark;
+
+import photon.file.parts.PhotonLayer;
+
+import java.util.Arrays;
+
+/**
+ * The byte at a time run length encoders the layer classes used before the runs were found a word at a time,
+ * kept as a baseline for the encoder benchmarks.
+ */
+public class ReferenceEncoders {
+    private final int width;
+    private final int height;
+    private final byte[][] iArray;
+    private final byte[] scratchPad;
+
+    public ReferenceEncoders(PhotonLayer photonLayer, int width, int height) {
+        this.width = width;
+        this.height = height;
+        iArray = new byte[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                iArray[y][x] = photonLayer.get(x, y);
+            }
+        }
+        scratchPad = new byte[width * height * 2];
+    }
+
+    public byte[] packLayerImage() {
+        int ptr = 0;
+        for (int y = 0; y < height; y++) {
+            byte current = PhotonLayer.OFF;
+            int length = 0;
+            for (int x = 0; x < width; x++) {
+                byte next = iArray[y][x];
+                if (next != current) {
+                    if (length > 0) {
+                        ptr = add(ptr, current, length);
+                    }
+                    current = next;
+                    length = 1;
+                } else {
+                    length++;
+                }
+            }
+            if (length > 0) {
+                ptr = add(ptr, current, length);
+            }
+        }
+        return Arrays.copyOf(scratchPad, ptr);
+    }
+
+    public byte[] packImageData() {
+        int ptr = 0;
+        for (int y = 0; y < height; y++) {
+            byte current = PhotonLayer.OFF;
+            int length = 0;
+            for (int x = 0; x < width; x++) {
+                byte next = iArray[y][x];
+                if (next != current) {
+                    if (length > 0) {
+                        ptr = addPhotonRLE(ptr, current == PhotonLayer.OFF, length);
+                    }
+                    current = next;
+                    length = 1;
+                } else {
+                    length++;
+                }
+            }
+            if (length > 0) {
+                ptr = addPhotonRLE(ptr, current == PhotonLayer.OFF, length);
+            }
+        }
+        return Arrays.copyOf(scratchPad, ptr);
+    }
+
+    private int add(int ptr, byte current, int length) {
+        if (length < 32) {
+            scratchPad[ptr++] = (byte) ((current << 5) | (length & 0x1f));
+        } else {
+            scratchPad[ptr++] = (byte) (0x80 | (current << 5) | (length >> 8 & 0x00FF));
+            scratchPad[ptr++] = (byte) (length & 0x00FF);
+        }
+        return ptr;
+    }
+
+    private int addPhotonRLE(int ptr, boolean off, int length) {
+        while (length > 0) {
+            int lineLength = length < 125 ? length : 125;
+            scratchPad[ptr++] = (byte) ((off ? 0x00 : 0x80) | (lineLength & 0x7f));
+            length -= lineLength;
+        }
+        return ptr;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Samples the heap in use and the bytes allocated by all threads while a phase is running.
+ * <p/>
+ * The calculations run on worker threads that are gone when the phase ends, so the allocation counters of all
+ * threads are read on every sample. The allocations of a thread after its last sample are not counted.
+ */
+public class ResourceSampler implements Runnable {
+    private static final long SAMPLE_MILLIS = 10;
+
+    private final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final Map<Long, long[]> threadAllocations = new HashMap<>();
+
+    private volatile boolean running;
+    private Thread thread;
+    private long peakHeap;
+
+    public void start() {
+        threadAllocations.clear();
+        peakHeap = 0;
+        sample(true);
+        running = true;
+        thread = new Thread(this, "resource-sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        thread.join();
+        sample(false);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            sample(false);
+            try {
+                Thread.sleep(SAMPLE_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the highest heap use seen in bytes
+     */
+    public synchronized long getPeakHeap() {
+        return peakHeap;
+    }
+
+    /**
+     * @return the bytes allocated by all threads since the start, or -1 if the JVM can not count allocations
+     */
+    public synchronized long getAllocatedBytes() {
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long allocated = 0;
+        for (long[] allocation : threadAllocations.values()) {
+            allocated += allocation[1] - allocation[0];
+        }
+        return allocated;
+    }
+
+    private synchronized void sample(boolean first) {
+        peakHeap = Long.max(peakHeap, memoryMXBean.getHeapMemoryUsage().getUsed());
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            long[] ids = threadMXBean.getAllThreadIds();
+            long[] bytes = ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] < 0) {
+                    continue;
+                }
+                long[] allocation = threadAllocations.get(ids[i]);
+                if (allocation == null) {
+                    // threads started during the phase have allocated everything in the phase
+                    allocation = new long[]{first ? bytes[i] : 0, bytes[i]};
+                    threadAllocations.put(ids[i], allocation);
+                }
+                allocation[1] = bytes[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.benchmark;
+
+import photon.file.parts.PhotonAaMatrix;
+import photon.file.parts.PhotonBitLayer;
+import photon.file.parts.PhotonFileBuffer;
+import photon.file.parts.PhotonFileLayer;
+import photon.file.parts.PhotonInputStream;
+import photon.file.parts.PhotonLayer;
+import photon.file.parts.photon.PhotonFileHeader;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Deterministic layer images for the benchmarks, so every run measures the same data without any input files.
+ * <p/>
+ * A pattern is drawn twice, the second time shifted as the layer on top, which gives both supported and
+ * island pixels when the layers are calculated.
+ */
+public class SyntheticLayers {
+    public enum Pattern {
+        EMPTY, SOLID, SUPPORTS, MODEL, NOISE
+    }
+
+    public enum Resolution {
+        PHOTON_1440P(1440, 2560), UHD_4K(3840, 2400);
+
+        public final int width;
+        public final int height;
+
+        Resolution(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int words;
+    private final Pattern pattern;
+
+    private final long[] previousBitmap;
+    private final long[] bitmap;
+    private final PhotonFileHeader header;
+
+    public SyntheticLayers(Resolution resolution, Pattern pattern) throws Exception {
+        this.width = resolution.width;
+        this.height = resolution.height;
+        this.words = (width + 63) >>> 6;
+        this.pattern = pattern;
+
+        previousBitmap = draw(0);
+        bitmap = draw(1);
+        header = createHeader(width, height, 2);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    public PhotonFileHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the bitmap of the top layer, 64 pixels per word with each row starting on a new word
+     */
+    public long[] getBitmap() {
+        return bitmap;
+    }
+
+    public long[] getPreviousBitmap() {
+        return previousBitmap;
+    }
+
+    /**
+     * @return the top layer as photon RLE image data, as it is stored in a file
+     */
+    public byte[] getImageData() {
+        return toImageData(bitmap);
+    }
+
+    /**
+     * @return the top layer packed for display with supported and island pixels, before the islands are reduced
+     */
+    public byte[] getIslandImage() {
+        PhotonBitLayer bitLayer = new PhotonBitLayer(width, height);
+        bitLayer.setLayer(bitmap, previousBitmap);
+        return bitLayer.packLayerImage();
+    }
+
+    /**
+     * @return the top layer packed for display after the islands are reduced, as it is after calculation
+     */
+    public byte[] getCalculatedImage() {
+        PhotonBitLayer bitLayer = new PhotonBitLayer(width, height);
+        bitLayer.setLayer(bitmap, previousBitmap);
+        bitLayer.reduce();
+        return bitLayer.packLayerImage();
+    }
+
+    /**
+     * Create a file layer holding the top layer image data.
+     */
+    public PhotonFileLayer createFileLayer() throws Exception {
+        return createFileLayer(header, getImageData(), 0);
+    }
+
+    /**
+     * Convert a bitmap to photon RLE image data, through the same layer classes as the application.
+     */
+    public byte[] toImageData(long[] source) {
+        PhotonBitLayer bitLayer = new PhotonBitLayer(width, height);
+        bitLayer.setLayer(source, null);
+        PhotonLayer photonLayer = new PhotonLayer(width, height);
+        photonLayer.unpackLayerImage(bitLayer.packLayerImage());
+        return photonLayer.packImageData();
+    }
+
+    /**
+     * Create a photon file header, as read from a file with empty layers.
+     */
+    public static PhotonFileHeader createHeader(int width, int height, int numberOfLayers) throws Exception {
+        return new PhotonFileHeader(SyntheticPhotonFile.createSkeleton(width, height, numberOfLayers, 1));
+    }
+
+    /**
+     * Create an anti aliasing filter, a 3x3 blur weighted to the center pixel.
+     */
+    public static PhotonAaMatrix createAaMatrix() {
+        int[][] weights = {{1, 2, 1}, {2, 4, 2}, {1, 2, 1}};
+        PhotonAaMatrix photonAaMatrix = new PhotonAaMatrix();
+        photonAaMatrix.clear();
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 3; x++) {
+                photonAaMatrix.set(x + 2, y + 2, weights[y][x]);
+            }
+        }
+        return photonAaMatrix;
+    }
+
+    /**
+     * Create a file layer from a layer definition, with the image data set as if it was read from a file.
+     */
+    static PhotonFileLayer createFileLayer(PhotonFileHeader header, byte[] imageData, int layerNo) throws Exception {
+        ByteBuffer definition = ByteBuffer.allocate(PhotonFileLayer.getByteSize()).order(ByteOrder.LITTLE_ENDIAN);
+        definition.putFloat(layerNo * header.getLayerHeight()).putFloat(8f).putFloat(1f)
+                .putInt(0).putInt(imageData.length)
+                .putInt(0).putInt(0).putInt(0).putInt(0);
+        definition.rewind();
+        PhotonFileLayer layer = PhotonFileLayer.readLayer(header, new PhotonInputStream(PhotonFileBuffer.inputStream(definition, 0)));
+        layer.setImageData(ByteBuffer.wrap(imageData));
+        return layer;
+    }
+
+    private long[] draw(int phase) {
+        long[] target = new long[words * height];
+        Random random = new Random(pattern.ordinal() * 31L + width);
+        switch (pattern) {
+            case EMPTY:
+                break;
+            case SOLID:
+                fillRectangle(target, width / 10 + phase, height / 10, width * 9 / 10, height * 9 / 10);
+                break;
+            case SUPPORTS:
+                // a grid of small support tips, some of them start on this layer
+                int spacing = Integer.max(16, width / 48);
+                for (int y = spacing / 2; y < height; y += spacing) {
+                    for (int x = spacing / 2; x < width; x += spacing) {
+                        if (phase == 1 || random.nextInt(8) > 0) {
+                            fillCircle(target, x, y, 3 + phase);
+                        }
+                    }
+                }
+                break;
+            case MODEL:
+                // rings and blobs of different sizes, with a few small parts only on the top layer
+                for (int i = 0; i < 24; i++) {
+                    int x = random.nextInt(width);
+                    int y = random.nextInt(height);
+                    int radius = 20 + random.nextInt(width / 8);
+                    boolean newPart = random.nextInt(6) == 0;
+                    if (newPart && phase == 0) {
+                        continue;
+                    }
+                    fillCircle(target, x + 2 * phase, y, radius);
+                    if (radius > 60 && i % 2 == 0) {
+                        clearCircle(target, x + 2 * phase, y, radius / 2);
+                    }
+                }
+                if (phase == 1) {
+                    // small parts printed in mid air, left as islands by the calculation
+                    for (int i = 1; i <= 8; i++) {
+                        clearCircle(target, i * width / 9, height / 2, 24);
+                        fillCircle(target, i * width / 9, height / 2, 8);
+                    }
+                }
+                break;
+            case NOISE:
+                // worst case for the run length encoders, one run every few pixels
+                random = new Random(pattern.ordinal() * 31L + width + phase);
+                for (int i = 0; i < target.length; i++) {
+                    target[i] = random.nextLong() & random.nextLong();
+                }
+                break;
+        }
+        // the printers do not use the pixels at the edge of the screen, and the island fix expects that
+        clearFrame(target, 2);
+        return target;
+    }
+
+    private void fillRectangle(long[] target, int x0, int y0, int x1, int y1) {
+        for (int y = Integer.max(0, y0); y < Integer.min(height, y1); y++) {
+            for (int x = Integer.max(0, x0); x < Integer.min(width, x1); x++) {
+                target[y * words + (x >>> 6)] |= 1L << x;
+            }
+        }
+    }
+
+    private void fillCircle(long[] target, int cx, int cy, int radius) {
+        circle(target, cx, cy, radius, true);
+    }
+
+    private void clearCircle(long[] target, int cx, int cy, int radius) {
+        circle(target, cx, cy, radius, false);
+    }
+
+    private void circle(long[] target, int cx, int cy, int radius, boolean set) {
+        for (int y = Integer.max(0, cy - radius); y <= Integer.min(height - 1, cy + radius); y++) {
+            int dx = (int) Math.sqrt((double) radius * radius - (double) (y - cy) * (y - cy));
+            for (int x = Integer.max(0, cx - dx); x <= Integer.min(width - 1, cx + dx); x++) {
+                if (set) {
+                    target[y * words + (x >>> 6)] |= 1L << x;
+                } else {
+                    target[y * words + (x >>> 6)] &= ~(1L << x);
+                }
+            }
+        }
+    }
+
+    private void clearFrame(long[] target, int size) {
+        for (int y = 0; y < height; y++) {
+            int offset = y * words;
+            if (y < size || y >= height - size) {
+                Arrays.fill(target, offset, offset + words, 0);
+            } else {
+                target[offset] &= -1L << size;
+                for (int x = width - size; x < words << 6; x++) {
+                    target[offset + (x >>> 6)] &= ~(1L << x);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.benchmark;
+
+import photon.file.PhotonFile;
+import photon.file.parts.IPhotonProgress;
+import photon.file.parts.PhotonBitLayer;
+import photon.file.parts.PhotonFileLayer;
+import photon.file.parts.PhotonLayer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates photon and cbddlp files of any size for the benchmarks.
+ * <p/>
+ * A small file with empty layers is written by hand and read with PhotonFile, then the layers are drawn and stored
+ * with PhotonFileLayer.saveLayer and the file is written with PhotonFile.saveFile, so the result is laid out exactly
+ * as the files the application saves.
+ * <p/>
+ * The model is a set of blobs standing on the plate, of different heights, slowly changing size and drifting
+ * sideways. Islands are added as small specks printed in mid air, the island density is the average number of
+ * specks per layer.
+ */
+public class SyntheticPhotonFile {
+    private static final IPhotonProgress NO_PROGRESS = str -> { };
+    private static final int BLOBS = 12;
+
+    private final int width;
+    private final int height;
+    private final int words;
+    private final int layerCount;
+    private final int antiAliasingLevel;
+    private final double islandDensity;
+    private final long seed;
+
+    public SyntheticPhotonFile(int width, int height, int layerCount, int antiAliasingLevel, double islandDensity, long seed) {
+        this.width = width;
+        this.height = height;
+        this.words = (width + 63) >>> 6;
+        this.layerCount = layerCount;
+        this.antiAliasingLevel = antiAliasingLevel;
+        this.islandDensity = islandDensity;
+        this.seed = seed;
+    }
+
+    /**
+     * @return the file extension the printers expect, cbddlp when the file has anti aliasing levels
+     */
+    public String getExtension() {
+        return antiAliasingLevel > 1 ? ".cbddlp" : ".photon";
+    }
+
+    /**
+     * Write the file. The layers are drawn into a PhotonFile that is saved as a whole, so the heap must hold the
+     * encoded layers of the entire file.
+     */
+    public void write(File file) throws Exception {
+        PhotonFile photonFile = create(file.getParentFile());
+        try {
+            photonFile.saveFile(file);
+        } finally {
+            photonFile.unLink();
+        }
+    }
+
+    private PhotonFile create(File directory) throws Exception {
+        File skeletonFile = File.createTempFile("skeleton", getExtension(), directory);
+        PhotonFile photonFile = new PhotonFile();
+        try {
+            try (FileOutputStream outputStream = new FileOutputStream(skeletonFile)) {
+                ByteBuffer skeleton = createSkeleton(width, height, layerCount, antiAliasingLevel > 1 ? 2 : 1);
+                outputStream.write(skeleton.array(), 0, skeleton.limit());
+            }
+            photonFile.setMemoryMapped(false);
+            photonFile.readFile(skeletonFile, NO_PROGRESS);
+        } finally {
+            skeletonFile.delete();
+        }
+        if (antiAliasingLevel > 1) {
+            photonFile.setAALevels(antiAliasingLevel);
+        }
+
+        Random random = new Random(seed);
+        double[][] blobs = new double[BLOBS][];
+        for (int i = 0; i < BLOBS; i++) {
+            // x, y, radius, last layer, drift per layer
+            blobs[i] = new double[]{
+                    width / 8 + random.nextInt(width * 3 / 4),
+                    height / 8 + random.nextInt(height * 3 / 4),
+                    8 + random.nextInt(Integer.max(8, width / 16)),
+                    random.nextInt(layerCount) + 1,
+                    random.nextDouble() - 0.5
+            };
+        }
+
+        PhotonBitLayer bitLayer = new PhotonBitLayer(width, height);
+        PhotonLayer photonLayer = new PhotonLayer(width, height);
+        long[] bitmap = bitLayer.newBitmap();
+        for (int layerNo = 0; layerNo < layerCount; layerNo++) {
+            int specks = (int) islandDensity + (random.nextDouble() < islandDensity - (int) islandDensity ? 1 : 0);
+            int[] speckPositions = new int[2 * specks];
+            for (int i = 0; i < speckPositions.length; i += 2) {
+                speckPositions[i] = 8 + random.nextInt(width - 16);
+                speckPositions[i + 1] = 8 + random.nextInt(height - 16);
+            }
+
+            PhotonFileLayer fileLayer = photonFile.getLayer(layerNo);
+            for (int level = 0; level < antiAliasingLevel; level++) {
+                // the anti aliasing levels are the same model, slightly smaller on each level
+                Arrays.fill(bitmap, 0);
+                for (double[] blob : blobs) {
+                    if (layerNo < blob[3]) {
+                        double radius = blob[2] * (1 + 0.3 * Math.sin(layerNo * 0.05)) - level;
+                        fillCircle(bitmap, blob[0] + blob[4] * layerNo, blob[1], radius);
+                    }
+                }
+                for (int i = 0; i < speckPositions.length; i += 2) {
+                    fillCircle(bitmap, speckPositions[i], speckPositions[i + 1], 2);
+                }
+
+                bitLayer.setLayer(bitmap, null);
+                photonLayer.unpackLayerImage(bitLayer.packLayerImage());
+                if (level == 0) {
+                    fileLayer.saveLayer(photonLayer);
+                } else {
+                    fileLayer.getAntiAlias(level - 1).saveLayer(photonLayer);
+                }
+            }
+        }
+        photonLayer.unLink();
+        bitLayer.unLink();
+        return photonFile;
+    }
+
+    private void fillCircle(long[] bitmap, double cx, double cy, double radius) {
+        if (radius <= 0) {
+            return;
+        }
+        int y0 = Integer.max(0, (int) Math.ceil(cy - radius));
+        int y1 = Integer.min(height - 1, (int) Math.floor(cy + radius));
+        for (int y = y0; y <= y1; y++) {
+            double dx = Math.sqrt(radius * radius - (y - cy) * (y - cy));
+            int x0 = Integer.max(0, (int) Math.ceil(cx - dx));
+            int x1 = Integer.min(width, (int) Math.floor(cx + dx) + 1);
+            for (int x = x0; x < x1; x++) {
+                bitmap[y * words + (x >>> 6)] |= 1L << x;
+            }
+        }
+    }
+
+    /**
+     * Create a file with empty layers. All layer definitions point to the same empty image, and the anti aliasing
+     * level is 1, the levels are added by PhotonFile when the file has been read.
+     */
+    static ByteBuffer createSkeleton(int width, int height, int layerCount, int version) {
+        int headerSize = 4 * 27 + (version > 1 ? 4 : 0);
+        int previewSize = 32 + 8;
+        int previewOne = headerSize;
+        int previewTwo = previewOne + previewSize;
+        int printParameters = version > 1 ? previewTwo + previewSize : 0;
+        int printParametersSize = version > 1 ? 60 : 0;
+        int layerDefinitions = previewTwo + previewSize + printParametersSize;
+        int imageData = layerDefinitions + PhotonFileLayer.getByteSize() * layerCount;
+
+        // the off pixels of a full layer, in runs of at most 125 pixels
+        int pixels = width * height;
+        int imageSize = (pixels + 124) / 125;
+
+        ByteBuffer buffer = ByteBuffer.allocate(imageData + imageSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(318570521).putInt(version)
+                .putFloat(68.04f).putFloat(120.96f).putFloat(150f)
+                .putInt(0).putInt(0).putInt(0)
+                .putFloat(0.05f).putFloat(8f).putFloat(60f).putFloat(1f)
+                .putInt(5).putInt(width).putInt(height)
+                .putInt(previewOne).putInt(layerDefinitions).putInt(layerCount).putInt(previewTwo)
+                .putInt(0).putInt(1)
+                .putInt(printParameters).putInt(printParametersSize).putInt(1)
+                .putShort((short) 255).putShort((short) 255)
+                .putInt(0).putInt(0);
+        if (version > 1) {
+            buffer.putInt(0);
+        }
+
+        // two black previews of 2x2 pixels
+        for (int preview : new int[]{previewOne, previewTwo}) {
+            buffer.putInt(2).putInt(2).putInt(preview + 32).putInt(8)
+                    .putInt(0).putInt(0).putInt(0).putInt(0)
+                    .putLong(0);
+        }
+
+        if (version > 1) {
+            buffer.putFloat(5f).putFloat(1f).putFloat(5f).putFloat(1f).putFloat(3f)
+                    .putFloat(0f).putFloat(0f).putFloat(0f)
+                    .putFloat(1f).putFloat(1f)
+                    .putInt(5).putInt(0).putInt(0).putInt(0).putInt(0);
+        }
+
+        for (int layerNo = 0; layerNo < layerCount; layerNo++) {
+            buffer.putFloat(layerNo * 0.05f).putFloat(layerNo < 5 ? 60f : 8f).putFloat(1f)
+                    .putInt(imageData).putInt(imageSize)
+                    .putInt(0).putInt(0).putInt(0).putInt(0);
+        }
+
+        for (int i = 0; i < imageSize; i++) {
+            buffer.put((byte) Integer.min(125, pixels - i * 125));
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -49,6 +49,7 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
+import java.util.Arrays;
 
 /**
  * by bn on 29/06/2018.
@@ -283,6 +284,11 @@ public class MainForm extends BaseForm implements ActionListener, ItemListener {
     }
 
     public static void main(String[] args) {
+        if (args != null && args.length > 0 && args[0].equals("--validate")) {
+            PhotonBatchValidator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         BaseFrame frame = new BaseFrame("Photon File Validator 2.1");
         MainUtils.setIcon(frame);
         MainForm mainForm = new MainForm();
@@ -296,6 +302,12 @@ public class MainForm extends BaseForm implements ActionListener, ItemListener {
 
         mainForm.getSystemInformation();
 
+        try {
+            mainForm.metrics.register("MainForm");
+        } catch (Exception e) {
+            System.out.println("Could not register the file metrics: " + e.getMessage());
+        }
+
         ImageIcon icon = new ImageIcon(MainUtils.getLogo());
         mainForm.logoLabel.setIcon(icon);
 
@@ -0,0 +1,244 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.application;
+
+import photon.file.PhotonFile;
+import photon.file.PhotonStreamValidator;
+import photon.file.PhotonValidationReport;
+import photon.file.parts.IPhotonProgress;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Validates photon files from the command line, without the user interface.
+ * <p/>
+ * The files are validated on a fixed pool of workers, one file per worker, as a loaded file holds all its layers in
+ * memory. The layers of a file are calculated on all cores. A JSON or CSV report is written for each file, and the
+ * standard output only holds the reports.
+ */
+public class PhotonBatchValidator {
+    private static final IPhotonProgress NO_PROGRESS = str -> { };
+
+    private int margin;
+    private boolean json = true;
+    private boolean stream;
+    private boolean metrics;
+    private int filesInFlight = Integer.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private File outputDirectory;
+    private final Map<File, String> reportNames = new HashMap<>();
+    private PrintStream out = System.out;
+
+    public static void main(String[] args) {
+        PhotonBatchValidator validator = new PhotonBatchValidator();
+        List<File> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format":
+                        validator.json = !"csv".equalsIgnoreCase(args[++i]);
+                        break;
+                    case "--margin":
+                        validator.margin = Integer.parseInt(args[++i]);
+                        break;
+                    case "--files":
+                        validator.filesInFlight = Integer.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--output":
+                        validator.outputDirectory = new File(args[++i]);
+                        break;
+                    case "--stream":
+                        validator.stream = true;
+                        break;
+                    case "--metrics":
+                        validator.metrics = true;
+                        break;
+                    default:
+                        File file = new File(args[i]);
+                        validator.addFiles(files, file, file.getName());
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            files.clear();
+        }
+
+        if (files.isEmpty()) {
+            System.err.println("Usage: --validate [--format json|csv] [--margin pixels] [--files n] [--output dir] [--stream] [--metrics] files or directories...");
+            System.exit(2);
+        }
+
+        if (validator.outputDirectory != null) {
+            if (!validator.outputDirectory.mkdirs() && !validator.outputDirectory.isDirectory()) {
+                System.err.println("Could not create the output directory " + validator.outputDirectory);
+                System.exit(2);
+            }
+            String duplicate = validator.getDuplicateReportName(files);
+            if (duplicate != null) {
+                System.err.println("More than one file would write the report " + duplicate + ", validate them separately");
+                System.exit(2);
+            }
+        }
+
+        // the file readers print information to the standard output, which would end up between the reports
+        System.setOut(System.err);
+        System.exit(validator.validate(files) ? 0 : 1);
+    }
+
+    /**
+     * Add the files of a file or directory, the report of a file is named from its path below the directory given.
+     */
+    private void addFiles(List<File> files, File file, String reportName) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    addFiles(files, child, reportName + File.separator + child.getName());
+                }
+            }
+        } else if (isValidatorFile(file)) {
+            files.add(file);
+            reportNames.put(file, reportName);
+        }
+    }
+
+    private String getDuplicateReportName(List<File> files) {
+        Map<String, File> reportFiles = new HashMap<>();
+        for (File file : files) {
+            String reportName = getReportName(file);
+            if (reportFiles.put(reportName, file) != null) {
+                return reportName;
+            }
+        }
+        return null;
+    }
+
+    private String getReportName(File file) {
+        return reportNames.getOrDefault(file, file.getName());
+    }
+
+    private static boolean isValidatorFile(File file) {
+        String name = file.getName().toLowerCase();
+        return file.isFile() && (name.endsWith(".photon") || name.endsWith(".cbddlp") || name.endsWith(".sl1"));
+    }
+
+    /**
+     * Validate the files, returns true if all files are valid.
+     */
+    public boolean validate(List<File> files) {
+        final ExecutorService executor = Executors.newFixedThreadPool(filesInFlight);
+        final List<Future<Boolean>> futures = new ArrayList<>();
+        boolean valid = true;
+        try {
+            if (!json) {
+                out.println(PhotonValidationReport.getCsvHeader());
+            }
+            for (File file : files) {
+                futures.add(executor.submit(() -> validate(file)));
+            }
+            for (Future<Boolean> future : futures) {
+                valid &= future.get();
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            valid = false;
+        } finally {
+            executor.shutdown();
+        }
+        return valid;
+    }
+
+    private boolean validate(File file) {
+        String report;
+        boolean valid;
+        try {
+            PhotonValidationReport validationReport = getReport(file);
+            report = json ? validationReport.toJson() : validationReport.toCsv();
+            valid = validationReport.isValid();
+        } catch (Exception e) {
+            report = json ? PhotonValidationReport.toJson(file.getName(), e) : PhotonValidationReport.toCsv(file.getName(), e);
+            valid = false;
+        }
+
+        synchronized (this) {
+            out.println(report);
+        }
+        if (outputDirectory != null) {
+            File reportFile = new File(outputDirectory, getReportName(file) + (json ? ".json" : ".csv"));
+            reportFile.getParentFile().mkdirs();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8)) {
+                if (!json) {
+                    writer.write(PhotonValidationReport.getCsvHeader());
+                    writer.write("\n");
+                }
+                writer.write(report);
+                writer.write("\n");
+            } catch (IOException e) {
+                System.err.println("Could not write " + reportFile + ": " + e.getMessage());
+            }
+        }
+        return valid;
+    }
+
+    private PhotonValidationReport getReport(File file) throws Exception {
+        String name = file.getName().toLowerCase();
+        if (stream && (name.endsWith(".photon") || name.endsWith(".cbddlp"))) {
+            return new PhotonStreamValidator(margin).validate(file, NO_PROGRESS);
+        }
+
+        PhotonFile photonFile = new PhotonFile();
+        photonFile.setMargin(margin);
+        photonFile.setMemoryMapped(true);
+        if (metrics) {
+            // the progress of the files being validated can be followed through JMX
+            photonFile.getMetrics().register(file.getPath());
+        }
+        try {
+            photonFile.readFile(file, NO_PROGRESS);
+            photonFile.calculate(NO_PROGRESS);
+            return photonFile.getValidationReport(file.getName());
+        } finally {
+            if (metrics) {
+                photonFile.getMetrics().unregister();
+                System.err.println(file.getName() + "\n" + photonFile.getMetrics().getSummary());
+            }
+            // release the layers and the file mapping before the next file is loaded
+            photonFile.unLink();
+        }
+    }
+}
@@ -36,6 +36,7 @@ import photon.application.utilities.PhotonLoadWorker;
 import photon.application.utilities.PhotonPlayWorker;
 import photon.file.PhotonFile;
 import photon.file.parts.PhotonFileLayer;
+import photon.file.parts.PhotonFileMetrics;
 import photon.file.parts.PhotonFilePreview;
 import photon.file.parts.PhotonLayer;
 import photon.file.ui.PhotonLayerImage;
@@ -64,6 +65,7 @@ public class BaseForm implements PrusaSL1Server.EventListener {
     protected String loadedPath;
     protected String loadedFileName;
     public PhotonFile photonFile;
+    public PhotonFileMetrics metrics = new PhotonFileMetrics();
     public int margin = 0;
     protected int zoom = 0;
 
@@ -186,6 +188,7 @@ public class BaseForm implements PrusaSL1Server.EventListener {
 
     public void showLayerInformation(int layer, PhotonFileLayer fileLayer) {
         me.layerNo.setForeground(fileLayer.getIsLandsCount() > 0 ? Color.red : Color.black);
+        me.layerNo.setToolTipText(fileLayer.getIsLandsCount() > 0 ? String.format("%d islands, %d island pixels", fileLayer.getIslandIndex().size(), fileLayer.getIsLandsCount()) : null);
         me.layerNo.setText("Layer " + layer + "/" + (me.photonFile.getLayerCount() - 1) + (me.photonFile.hasAA()?" AA("+me.photonFile.getPhotonFileHeader().getAALevels()+")" : ""));
         me.layerZ.setText(String.format("Z: %.4f mm", fileLayer.getLayerPositionZ()));
         me.layerExposure.setText(String.format("Exposure: %.1fs", fileLayer.getLayerExposure()));
@@ -455,14 +458,11 @@ public class BaseForm implements PrusaSL1Server.EventListener {
         PhotonFileLayer fileLayer = photonFile.getLayer(layerNo);
         PhotonLayer layer = fileLayer.getLayer();
 
-        if (layer.removeIslands() > 0) {
+        if (layer.removeIslands(fileLayer.getIslandIndex()) > 0) {
             try {
                 fileLayer.saveLayer(layer);
-                photonFile.calculate(layerNo);
-
-                if (layerNo < photonFile.getLayerCount() - 1) {
-                    photonFile.calculate(layerNo + 1);
-                }
+                photonFile.markLayerChanged(layerNo);
+                photonFile.calculateChanged();
             } catch (Exception e) {
                 System.out.println(e.getMessage());
             }
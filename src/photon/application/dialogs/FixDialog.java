@@ -125,7 +125,7 @@ public class FixDialog extends JDialog {
 
         for (int layerNo : photonFile.getIslandLayers()) {
             PhotonFileLayer layer = photonFile.getLayer(layerNo);
-            builder.append(String.format("<p>Layer %6d have %9d island pixels</p>", layerNo, layer.getIsLandsCount()));
+            builder.append(String.format("<p>Layer %6d have %6d islands, %9d island pixels</p>", layerNo, layer.getIslandIndex().size(), layer.getIsLandsCount()));
         }
 
         showProgressHtml(builder.toString());
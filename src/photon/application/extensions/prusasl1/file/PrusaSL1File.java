@@ -4,6 +4,7 @@ import photon.application.extensions.prusasl1.configuration.PrusaSL1Configuratio
 import photon.application.extensions.prusasl1.file.parts.PrusaSL1FileHeader;
 import photon.application.extensions.prusasl1.file.parts.PrusaSL1FileLayer;
 import photon.application.extensions.prusasl1.file.utilites.RenderedImage;
+import photon.application.extensions.prusasl1.file.utilites.ZipArchive;
 import photon.application.extensions.prusasl1.printhost.utilites.PrintHostTemporaryFile;
 
 import javax.imageio.ImageIO;
@@ -11,16 +12,15 @@ import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.ZipFile;
 
 public class PrusaSL1File implements Closeable {
     private final File file;
-    private final ZipFile zipFile; // will not work with ZipInputStream because of "java.util.zip.ZipException: only DEFLATED entries can have EXT descriptor"
+    private final ZipArchive zipArchive; // will not work with ZipInputStream because of "java.util.zip.ZipException: only DEFLATED entries can have EXT descriptor"
     private final PrusaSL1FileHeader header;
     private final PrusaSL1FileLayer[] layers;
 
@@ -29,55 +29,51 @@ public class PrusaSL1File implements Closeable {
 
     public PrusaSL1File(final File file) throws IOException {
         this.file = file;
-        zipFile = new ZipFile(file);
+        zipArchive = new ZipArchive(file);
 
         // read header
         header = new PrusaSL1FileHeader();
-        zipFile.stream().parallel().forEach(entry -> {
+        for(final ZipArchive.Entry entry : zipArchive.getEntries()) {
             final String name = entry.getName();
             if(name.endsWith(".ini")) {
-                try {
-                    header.read(name.substring(0, name.length()-4), zipFile.getInputStream(entry));
+                try(final InputStream in = zipArchive.getInputStream(entry)) {
+                    header.read(name.substring(0, name.length()-4), in);
                 }
                 catch(final IOException e) {
                     throw new RuntimeException("Error reading config file '" + name + "': " + e.getMessage());
                 }
             }
-        });
+        }
 
         if(!header.isValid())
             throw new IllegalArgumentException("No valid config.ini found in file " + file);
 
         // read layers and previews
-        final List<RenderedImage> thumbnails = Collections.synchronizedList(new ArrayList<>());
+        final List<RenderedImage> thumbnails = new ArrayList<>();
         layers = new PrusaSL1FileLayer[header.getNumberOfLayers()];
         {
             final Pattern layerPattern = Pattern.compile( "^" + Pattern.quote(header.getLayerFilePrefix()) + "([0-9]+)\\.png$");
             final Pattern thumbnailPattern = Pattern.compile( "^thumbnail/thumbnail([0-9]+)x([0-9]+)\\.png$");
 
-            zipFile.stream().parallel().forEach(entry -> {
+            for(final ZipArchive.Entry entry : zipArchive.getEntries()) {
                 final String name = entry.getName();
                 final Matcher layerMatcher = layerPattern.matcher(name);
                 final Matcher thumbnailMatcher = thumbnailPattern.matcher(name);
 
                 if(layerMatcher.matches()) {
-                    try {
-                        final int index = Integer.parseInt(layerMatcher.group(1), 10);
-                        layers[index] = new PrusaSL1FileLayer(index, zipFile.getInputStream(entry));
-                    }
-                    catch(final IOException e) {
-                        throw new RuntimeException("Error reading Layer '" + name + "': " + e.getMessage());
-                    }
+                    // the layer images are read later, a few at a time
+                    final int index = Integer.parseInt(layerMatcher.group(1), 10);
+                    layers[index] = new PrusaSL1FileLayer(index, zipArchive, entry);
                 }
                 else if(thumbnailMatcher.matches()) {
-                    try {
-                        thumbnails.add(new RenderedImage(ImageIO.read(new BufferedInputStream(zipFile.getInputStream(entry)))));
+                    try(final InputStream in = new BufferedInputStream(zipArchive.getInputStream(entry))) {
+                        thumbnails.add(new RenderedImage(ImageIO.read(in)));
                     }
                     catch(final Exception e) {
                         System.err.println("Error reading thumbnail '" + name + "': " + e.getMessage());
                     }
                 }
-            });
+            }
         }
 
         // order thumbnails by size
@@ -123,7 +119,7 @@ public class PrusaSL1File implements Closeable {
 
     @Override
     public void close() throws IOException {
-        zipFile.close();
+        zipArchive.close();
 
         if(file instanceof PrintHostTemporaryFile) {
             ((PrintHostTemporaryFile) file).cleanUp();
@@ -1,25 +1,38 @@
 package photon.application.extensions.prusasl1.file.parts;
 
+import photon.application.extensions.prusasl1.file.utilites.ZipArchive;
+
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+/**
+ * A layer image in the zip file, the entry is only opened while the image is read.
+ */
 public class PrusaSL1FileLayer {
     private final int index;
-    private final InputStream dataStream;
+    private final ZipArchive zipArchive;
+    private final ZipArchive.Entry entry;
 
-    public PrusaSL1FileLayer(final int index, final InputStream dataStream) {
+    public PrusaSL1FileLayer(final int index, final ZipArchive zipArchive, final ZipArchive.Entry entry) {
         this.index = index;
-        this.dataStream = dataStream;
+        this.zipArchive = zipArchive;
+        this.entry = entry;
     }
 
     public int getIndex() {
         return index;
     }
 
+    public InputStream getInputStream() throws IOException {
+        return new BufferedInputStream(zipArchive.getInputStream(entry));
+    }
+
     public BufferedImage getImage() throws IOException {
-        return ImageIO.read(new BufferedInputStream(dataStream));
+        try(final InputStream dataStream = getInputStream()) {
+            return ImageIO.read(dataStream);
+        }
     }
 }
@@ -18,15 +18,9 @@ public class DepthBuffer {
         this.buffer = new int[width*numLayers];
     }
 
-    public synchronized void setDepth(final int layerNum, final int xCoordinate, final int depthValue) {
+    public void setDepth(final int layerNum, final int xCoordinate, final int depthValue) {
+        // the layers are set on many threads, so the bounds are found when the buffer is used
         buffer[width*layerNum + xCoordinate] = depthValue;
-
-        if(EMPTY != depthValue) {
-            if(xCoordinate < minX) minX = xCoordinate;
-            if(xCoordinate > maxX) maxX = xCoordinate;
-            if(depthValue < minDepth) minDepth = depthValue;
-            if(depthValue > maxDepth) maxDepth = depthValue;
-        }
     }
 
     public int getDepth(final int layerNum, final int xCoordinate) {
@@ -42,22 +36,33 @@ public class DepthBuffer {
     }
 
     public NormalMap getNormalMap() {
+        findBounds();
+
         //  check for empty file
         if(minX >= maxX || minDepth >= maxDepth)
             throw new IllegalStateException("Empty Z-Buffer");
 
-        // clamp buffer to object size
+        // clamp buffer to object size, the map reads the buffer in place
         final int normalizedWidth = maxX - minX;
-        final int[] normalizedBuf = new int[normalizedWidth*numLayers];
+        return new NormalMap(normalizedWidth, numLayers, buffer, minX, width, minDepth);
+    }
 
+    private void findBounds() {
+        minX = Integer.MAX_VALUE;
+        maxX = 0;
+        minDepth = Integer.MAX_VALUE;
+        maxDepth = 0;
         for(int y = 0; y < numLayers; y++) {
-            for(int x = 0; x < normalizedWidth; x++) {
-                final int rawDepth = buffer[width*y + minX + x];
-                normalizedBuf[normalizedWidth*y + x] = EMPTY == rawDepth ? EMPTY : rawDepth - minDepth;
+            for(int x = 0; x < width; x++) {
+                final int depthValue = buffer[width*y + x];
+                if(EMPTY != depthValue) {
+                    if(x < minX) minX = x;
+                    if(x > maxX) maxX = x;
+                    if(depthValue < minDepth) minDepth = depthValue;
+                    if(depthValue > maxDepth) maxDepth = depthValue;
+                }
             }
         }
-
-        return new NormalMap(normalizedWidth, numLayers, normalizedBuf);
     }
 
 }
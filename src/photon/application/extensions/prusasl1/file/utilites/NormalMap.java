@@ -1,39 +1,31 @@
 package photon.application.extensions.prusasl1.file.utilites;
 
+/**
+ * The surface normals of a depth buffer. The normals are computed from the depth values when they are used,
+ * so the map holds no object per pixel, and it can be read from many threads at once.
+ */
 public class NormalMap {
     private final int width;
     private final int height;
-    private final Vec3D[] map;
+    private final int[] zBufferData;
+    private final int offset;
+    private final int stride;
+    private final int minDepth;
 
     public NormalMap(final int width, final int height, final int[] zBufferData) {
+        this(width, height, zBufferData, 0, width, 0);
+    }
+
+    /**
+     * A map of a part of a depth buffer, starting at offset with rows of stride values, where minDepth is the nearest depth.
+     */
+    NormalMap(final int width, final int height, final int[] zBufferData, final int offset, final int stride, final int minDepth) {
         this.width = width;
         this.height = height;
-        this.map = new Vec3D[width*height];
-
-        // https://stackoverflow.com/questions/34644101/calculate-surface-normals-from-depth-image-using-neighboring-pixels-cross-produc
-        /*
-        dzdx=(z(x+1,y)-z(x-1,y))/2.0;
-        dzdy=(z(x,y+1)-z(x,y-1))/2.0;
-        direction=(-dzdx,-dzdy,1.0)
-        magnitude=sqrt(direction.x**2 + direction.y**2 + direction.z**2)
-        normal=direction/magnitude
-         */
-        for(int y = 0; y < height; y++) {
-            for(int x = 0; x < width; x++) {
-                final int pos = width*y+x;
-                if(DepthBuffer.EMPTY == zBufferData[pos]) {
-                    map[pos] = null;
-                }
-                else {
-                    final double dzdx=(Z(x+1,y,zBufferData)-Z(x-1,y,zBufferData))/2.0;
-                    final double dzdy=(Z(x,y+1,zBufferData)-Z(x,y-1,zBufferData))/2.0;
-
-                    final Vec3D normal = new Vec3D(-dzdx,-dzdy,1.0);
-                    normal.normalize();
-                    map[pos] = normal;
-                }
-            }
-        }
+        this.zBufferData = zBufferData;
+        this.offset = offset;
+        this.stride = stride;
+        this.minDepth = minDepth;
     }
 
     public int getWidth() {
@@ -44,8 +36,38 @@ public class NormalMap {
         return height;
     }
 
-    public Vec3D getNormal(final int x, final int y) {
-        return map[width*y+x];
+    public boolean isEmpty(final int x, final int y) {
+        return DepthBuffer.EMPTY == zBufferData[offset + stride*y + x];
+    }
+
+    /**
+     * The lambert intensity of a pixel lit from the view direction, the normal is not stored.
+     */
+    public double getIntensity(final int x, final int y, final double viewX, final double viewY, final double viewZ) {
+        final double dzdx = getDzDx(x, y);
+        final double dzdy = getDzDy(x, y);
+        final double length = getLength(dzdx, dzdy);
+        return Math.max((-dzdx / length) * viewX + (-dzdy / length) * viewY + (1.0 / length) * viewZ, 0);
+    }
+
+    // https://stackoverflow.com/questions/34644101/calculate-surface-normals-from-depth-image-using-neighboring-pixels-cross-produc
+    /*
+    dzdx=(z(x+1,y)-z(x-1,y))/2.0;
+    dzdy=(z(x,y+1)-z(x,y-1))/2.0;
+    direction=(-dzdx,-dzdy,1.0)
+    magnitude=sqrt(direction.x**2 + direction.y**2 + direction.z**2)
+    normal=direction/magnitude
+     */
+    private double getDzDx(final int x, final int y) {
+        return (Z(x+1,y)-Z(x-1,y))/2.0;
+    }
+
+    private double getDzDy(final int x, final int y) {
+        return (Z(x,y+1)-Z(x,y-1))/2.0;
+    }
+
+    private static double getLength(final double dzdx, final double dzdy) {
+        return Math.sqrt(dzdx*dzdx + dzdy*dzdy + 1.0);
     }
 
     private int X(final int x) {
@@ -60,8 +82,8 @@ public class NormalMap {
         return y;
     }
 
-    private int Z(final int x, final int y, final int[] zBufferData) {
-        final int z = zBufferData[width*Y(y)+X(x)];
-        return DepthBuffer.EMPTY == z ? Integer.MAX_VALUE : z;
+    private int Z(final int x, final int y) {
+        final int z = zBufferData[offset + stride*Y(y)+X(x)];
+        return DepthBuffer.EMPTY == z ? Integer.MAX_VALUE : z - minDepth;
     }
 }
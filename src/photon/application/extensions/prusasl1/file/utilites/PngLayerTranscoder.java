@@ -0,0 +1,251 @@
+package photon.application.extensions.prusasl1.file.utilites;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Transcodes an 8 bit grayscale PNG layer image into photon RLE data and depth buffer entries.
+ * <p/>
+ * The scanlines are inflated and unfiltered one at a time and only the runs of each row are kept,
+ * so the image is never decoded as a whole. A transcoder keeps its buffers, so a worker should
+ * use one transcoder for all of its layers.
+ */
+public class PngLayerTranscoder {
+    private static final long PNG_SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int IHDR = 0x49484452;
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454E44;
+
+    // the runs of all rows, as value << 16 | length, and the first run of each row
+    private int[] runs = new int[4096];
+    private int[] rowStart = new int[0];
+
+    private byte[] chunk = new byte[0];
+    private byte[] output = new byte[0];
+
+    /**
+     * Transcode a PNG layer image.
+     *
+     * @return the photon RLE data, or null when the image is not an 8 bit grayscale image and must be read as a whole
+     */
+    public byte[] transcode(final InputStream in, final int layerNum, final int expectedWidth, final int expectedHeight, final DepthBuffer depthBuffer) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        if(PNG_SIGNATURE != data.readLong())
+            throw new IOException("Not a PNG image");
+
+        if(13 != data.readInt() || IHDR != data.readInt())
+            throw new IOException("Missing PNG header");
+        final int width = data.readInt();
+        final int height = data.readInt();
+        final int bitDepth = data.readUnsignedByte();
+        final int colorType = data.readUnsignedByte();
+        final int compression = data.readUnsignedByte();
+        final int filter = data.readUnsignedByte();
+        final int interlace = data.readUnsignedByte();
+        data.readInt(); // crc
+
+        if(8 != bitDepth || 0 != colorType || 0 != compression || 0 != filter || 0 != interlace)
+            return null;
+
+        if(width != expectedWidth || height != expectedHeight)
+            throw new IllegalArgumentException("Wrong image size: found " + width + "x" + height + ", expected " + expectedWidth + "x" + expectedHeight);
+
+        if(0 == width || 0 == height)
+            return new byte[0];
+
+        readRows(data, width, height);
+        return encode(layerNum, width, height, depthBuffer);
+    }
+
+    private void readRows(final DataInputStream data, final int width, final int height) throws IOException {
+        if(rowStart.length < height + 1)
+            rowStart = new int[height + 1];
+
+        // the filter type followed by the pixels, the previous row starts as all zero
+        byte[] current = new byte[width + 1];
+        byte[] previous = new byte[width + 1];
+        int runCount = 0;
+
+        final Inflater inflater = new Inflater();
+        try {
+            int y = 0;
+            int position = 0;
+            while(y < height) {
+                final int length = inflater.inflate(current, position, current.length - position);
+                if(0 == length) {
+                    if(inflater.finished() || inflater.needsDictionary())
+                        throw new IOException("Wrong number of rows: found " + y + ", expected " + height);
+                    if(inflater.needsInput()) {
+                        final int chunkLength = nextImageData(data);
+                        inflater.setInput(chunk, 0, chunkLength);
+                    }
+                    continue;
+                }
+                position += length;
+                if(position < current.length)
+                    continue;
+
+                unfilter(current, previous, width);
+
+                rowStart[y] = runCount;
+                int x = 0;
+                while(x < width) {
+                    final byte value = current[x + 1];
+                    int end = x + 1;
+                    while(end < width && current[end + 1] == value)
+                        end++;
+                    // a run longer than the length field is stored as several runs of the same value
+                    for(int start = x; start < end; start += 0xFFFF) {
+                        if(runCount == runs.length)
+                            runs = Arrays.copyOf(runs, runs.length * 2);
+                        runs[runCount++] = ((value & 0xFF) << 16) | Integer.min(0xFFFF, end - start);
+                    }
+                    x = end;
+                }
+
+                final byte[] swap = previous;
+                previous = current;
+                current = swap;
+                position = 0;
+                y++;
+            }
+            rowStart[height] = runCount;
+        }
+        catch(final DataFormatException e) {
+            throw new IOException("Error inflating PNG image data: " + e.getMessage());
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    private static void unfilter(final byte[] current, final byte[] previous, final int width) throws IOException {
+        switch(current[0]) {
+            case 0:
+                break;
+            case 1:
+                for(int i = 2; i <= width; i++)
+                    current[i] += current[i - 1];
+                break;
+            case 2:
+                for(int i = 1; i <= width; i++)
+                    current[i] += previous[i];
+                break;
+            case 3:
+                current[1] += (previous[1] & 0xFF) >>> 1;
+                for(int i = 2; i <= width; i++)
+                    current[i] += ((current[i - 1] & 0xFF) + (previous[i] & 0xFF)) >>> 1;
+                break;
+            case 4:
+                current[1] += previous[1];
+                for(int i = 2; i <= width; i++)
+                    current[i] += paeth(current[i - 1] & 0xFF, previous[i] & 0xFF, previous[i - 1] & 0xFF);
+                break;
+            default:
+                throw new IOException("Unknown PNG filter type " + current[0]);
+        }
+    }
+
+    private static int paeth(final int a, final int b, final int c) {
+        final int p = a + b - c;
+        final int pa = Math.abs(p - a);
+        final int pb = Math.abs(p - b);
+        final int pc = Math.abs(p - c);
+        if(pa <= pb && pa <= pc)
+            return a;
+        if(pb <= pc)
+            return b;
+        return c;
+    }
+
+    /**
+     * Read chunks up to the next image data chunk, and return its length.
+     */
+    private int nextImageData(final DataInputStream data) throws IOException {
+        while(true) {
+            final int length;
+            final int type;
+            try {
+                length = data.readInt();
+                type = data.readInt();
+            }
+            catch(final EOFException e) {
+                throw new IOException("Missing PNG image data");
+            }
+            if(IEND == type)
+                throw new IOException("Missing PNG image data");
+            if(IDAT == type) {
+                if(chunk.length < length)
+                    chunk = new byte[length];
+                data.readFully(chunk, 0, length);
+                data.readInt(); // crc
+                return length;
+            }
+            int skip = length + 4;
+            while(skip > 0) {
+                final int skipped = data.skipBytes(skip);
+                if(0 == skipped)
+                    throw new IOException("Missing PNG image data");
+                skip -= skipped;
+            }
+        }
+    }
+
+    /**
+     * Write the runs from the last pixel to the first, which rotates the image by 180 degrees. Runs of equal
+     * pixels continue over the rows and are split at 125 pixels, the longest run of photon RLE data.
+     */
+    private byte[] encode(final int layerNum, final int width, final int height, final DepthBuffer depthBuffer) {
+        int size = 0;
+        int color = runs[rowStart[height] - 1] >>> 16;
+        int count = 0;
+        for(int y = height - 1; y >= 0; y--) {
+            // the depth follows the pixel before each pixel, in the order they are written
+            final boolean lastLit = y == height - 1 ? 0 != (color & 0x80) : 0 != (runs[rowStart[y + 1]] & 0x800000);
+            int depth = lastLit ? width - 1 : DepthBuffer.EMPTY;
+            int x = 0;
+            for(int i = rowStart[y]; i < rowStart[y + 1]; i++) {
+                final int end = x + (runs[i] & 0xFFFF);
+                if(0 != (runs[i] & 0x800000) && end > 1) {
+                    depth = Integer.max(x, 1) - 1;
+                    break;
+                }
+                x = end;
+            }
+            depthBuffer.setDepth(layerNum, y, DepthBuffer.EMPTY == depth ? DepthBuffer.EMPTY : (width - 1) - depth);
+
+            // a row takes at most one byte per pixel, and one per pixel of the run it continues
+            if(size + width + 125 > output.length)
+                output = Arrays.copyOf(output, Integer.max(size + width + 125, output.length * 2));
+
+            for(int i = rowStart[y + 1] - 1; i >= rowStart[y]; i--) {
+                final int value = runs[i] >>> 16;
+                final int length = runs[i] & 0xFFFF;
+                if(value == color) {
+                    count += length;
+                    // runs of 125 are written when the run continues
+                    while(count > 125) {
+                        output[size++] = (byte) ((color & 0x80) | 125);
+                        count -= 125;
+                    }
+                }
+                else {
+                    output[size++] = (byte) ((color & 0x80) | count);
+                    color = value;
+                    count = length;
+                    while(count > 125) {
+                        output[size++] = (byte) ((color & 0x80) | 125);
+                        count -= 125;
+                    }
+                }
+            }
+        }
+        // as before, the last run is not written
+        return Arrays.copyOf(output, size);
+    }
+}
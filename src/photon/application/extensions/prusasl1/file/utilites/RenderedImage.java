@@ -6,11 +6,17 @@ import java.awt.geom.AffineTransform;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
 
 public class RenderedImage {
     private final BufferedImage image;
     private final int[] imageData;
 
+    // box filtered images of half the size of the one before, starting with this image, made when they are needed
+    private final List<RenderedImage> pyramid = new ArrayList<>();
+
     public RenderedImage(final BufferedImage source) {
         if(BufferedImage.TYPE_INT_RGB == source.getType()) {
             image = source;
@@ -49,21 +55,16 @@ public class RenderedImage {
         final int aBlue = ambientColor & 0xFF;
 
 
-        for(int layer = 0; layer < resolutionY; layer++) {
+        // the rows are shaded in parallel, each pixel from its normal in a single pass
+        IntStream.range(0, resolutionY).parallel().forEach(layer -> {
             for(int x = 0; x < resolutionX; x++) {
-                final Vec3D normal = normalMap.getNormal(x, layer);
                 int color;
 
-                if(null == normal) {
+                if(normalMap.isEmpty(x, layer)) {
                     color = backgroundColor;
                 }
                 else {
-                    // output normal as color
-                    /*final int red = (int) (255f * ( normal.getX()));
-                    final int green = (int) (255f * ( normal.getY()));
-                    final int blue = (int) (255f * ( normal.getZ()));*/
-
-                    final double intensity = Math.max(view.dotProduct(normal), 0);
+                    final double intensity = normalMap.getIntensity(x, layer, view.getX(), view.getY(), view.getZ());
                     final int red = Math.min(aRed + (int) (dRed * intensity), 0xFF);
                     final int green = Math.min(aGreen + (int) (dGreen * intensity), 0xFF);
                     final int blue = Math.min(aBlue + (int) (dBlue * intensity), 0xFF);
@@ -77,23 +78,71 @@ public class RenderedImage {
                 // rotate about 180 degree
                 imageData[resolutionX*(resolutionY-(layer+1)) + (resolutionX-(x+1))] = color;
             }
-        }
+        });
     }
 
-    public RenderedImage getScaledImage(final int maxWidth, final int maxHeight) {
+    /**
+     * Scale the image to fit the size. The image is scaled from the smallest level of the pyramid that is still at
+     * least the size of the result, so every preview size only filters an image of less than twice its size.
+     */
+    public synchronized RenderedImage getScaledImage(final int maxWidth, final int maxHeight) {
         final double scaleX = (double) maxWidth / (double) getWidth();
         final double scaleY = (double) maxHeight / (double) getHeight();
 
         final double scale = Math.min(scaleX, scaleY);
-        final int width = (int) ((double) getWidth() * scale);
-        final int height = (int) ((double) getHeight() * scale);
+        final int width = Math.max(1, (int) ((double) getWidth() * scale));
+        final int height = Math.max(1, (int) ((double) getHeight() * scale));
+
+        if(pyramid.isEmpty())
+            pyramid.add(this);
+        RenderedImage level = pyramid.get(pyramid.size() - 1);
+        while(level.getWidth() >= 2 * width && level.getHeight() >= 2 * height) {
+            level = level.getHalfImage();
+            pyramid.add(level);
+        }
+        for(final RenderedImage smaller : pyramid) {
+            if(smaller.getWidth() >= width && smaller.getHeight() >= height)
+                level = smaller;
+        }
 
         final BufferedImage after = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         final AffineTransform at = new AffineTransform();
-        at.scale(scale, scale);
+        at.scale((double) width / (double) level.getWidth(), (double) height / (double) level.getHeight());
         final AffineTransformOp scaleOp = new AffineTransformOp(at, AffineTransformOp.TYPE_BILINEAR);
 
-        return new RenderedImage(scaleOp.filter(image, after));
+        return new RenderedImage(scaleOp.filter(level.image, after));
+    }
+
+    /**
+     * The image at half the size, where each pixel is the average of the two by two pixels it covers.
+     */
+    private RenderedImage getHalfImage() {
+        final int width = getWidth();
+        final int height = getHeight();
+        final int halfWidth = Math.max(1, width / 2);
+        final int halfHeight = Math.max(1, height / 2);
+        final BufferedImage half = new BufferedImage(halfWidth, halfHeight, BufferedImage.TYPE_INT_RGB);
+        final int[] halfData = ((DataBufferInt) half.getRaster().getDataBuffer()).getData();
+
+        IntStream.range(0, halfHeight).parallel().forEach(y -> {
+            final int row0 = width * Math.min(2*y, height-1);
+            final int row1 = width * Math.min(2*y+1, height-1);
+            for(int x = 0; x < halfWidth; x++) {
+                final int x0 = Math.min(2*x, width-1);
+                final int x1 = Math.min(2*x+1, width-1);
+                final int p0 = imageData[row0 + x0];
+                final int p1 = imageData[row0 + x1];
+                final int p2 = imageData[row1 + x0];
+                final int p3 = imageData[row1 + x1];
+
+                // add the four pixels a component at a time, with room for the carries
+                final int red = ((p0 >> 16) & 0xFF) + ((p1 >> 16) & 0xFF) + ((p2 >> 16) & 0xFF) + ((p3 >> 16) & 0xFF);
+                final int green = ((p0 >> 8) & 0xFF) + ((p1 >> 8) & 0xFF) + ((p2 >> 8) & 0xFF) + ((p3 >> 8) & 0xFF);
+                final int blue = (p0 & 0xFF) + (p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF);
+                halfData[halfWidth*y + x] = ((red + 2) >> 2) << 16 | ((green + 2) >> 2) << 8 | ((blue + 2) >> 2);
+            }
+        });
+        return new RenderedImage(half);
     }
 
     public int getWidth() {
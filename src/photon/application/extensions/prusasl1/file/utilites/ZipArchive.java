@@ -0,0 +1,243 @@
+package photon.application.extensions.prusasl1.file.utilites;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A zip file that can be read on many threads at once.
+ * <p/>
+ * The central directory is read once into a list of entries. The entries are read with positional reads on a
+ * shared file channel, which do not lock, and every stream inflates on its own, so the layers of a file are
+ * inflated in parallel instead of one at a time as with a shared ZipFile.
+ */
+public class ZipArchive implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final FileChannel channel;
+    private final List<Entry> entries;
+
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        private Entry(final String name, final int method, final long compressedSize, final long size, final long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    public ZipArchive(final File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            entries = Collections.unmodifiableList(readCentralDirectory(file));
+        }
+        catch(final IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public InputStream getInputStream(final Entry entry) throws IOException {
+        // the local header can have other name and extra lengths than the central directory
+        final ByteBuffer header = read(entry.localHeaderOffset, 30);
+        if(LOCAL_HEADER != header.getInt(0))
+            throw new IOException("Missing local header of zip entry '" + entry.name + "'");
+        final long dataOffset = entry.localHeaderOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+
+        switch(entry.method) {
+            case STORED:
+                return new EntryInputStream(dataOffset, entry.compressedSize, false);
+            case DEFLATED:
+                // a raw inflater needs an extra byte after the data
+                final Inflater inflater = new Inflater(true);
+                final int bufferSize = (int) Long.max(1, Long.min(65536, entry.compressedSize + 1));
+                return new InflaterInputStream(new EntryInputStream(dataOffset, entry.compressedSize, true), inflater, bufferSize) {
+                    private boolean closed = false;
+
+                    @Override
+                    public void close() throws IOException {
+                        if(!closed) {
+                            closed = true;
+                            inflater.end();
+                            super.close();
+                        }
+                    }
+                };
+            default:
+                throw new IOException("Unsupported compression method " + entry.method + " of zip entry '" + entry.name + "'");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<Entry> readCentralDirectory(final File file) throws IOException {
+        final long fileSize = channel.size();
+
+        // the end of central directory record is followed by a comment of at most 65535 bytes
+        final int tailSize = (int) Long.min(fileSize, 22 + 65535);
+        final ByteBuffer tail = read(fileSize - tailSize, tailSize);
+        int end = tailSize - 22;
+        while(end >= 0 && END_OF_CENTRAL_DIRECTORY != tail.getInt(end))
+            end--;
+        if(end < 0)
+            throw new IOException("Not a zip file: " + file);
+
+        long count = tail.getShort(end + 10) & 0xFFFF;
+        long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+
+        final long locator = fileSize - tailSize + end - 20;
+        if(locator >= 0 && ZIP64_LOCATOR == read(locator, 4).getInt(0)) {
+            final ByteBuffer zip64 = read(read(locator, 20).getLong(8), 56);
+            if(ZIP64_END_OF_CENTRAL_DIRECTORY != zip64.getInt(0))
+                throw new IOException("Missing zip64 end of central directory: " + file);
+            count = zip64.getLong(32);
+            directorySize = zip64.getLong(40);
+            directoryOffset = zip64.getLong(48);
+        }
+        if(directorySize > Integer.MAX_VALUE)
+            throw new IOException("Zip central directory too large: " + file);
+
+        final ByteBuffer directory = read(directoryOffset, (int) directorySize);
+        final List<Entry> result = new ArrayList<>();
+        int position = 0;
+        for(long i = 0; i < count; i++) {
+            if(CENTRAL_HEADER != directory.getInt(position))
+                throw new IOException("Broken zip central directory: " + file);
+            final int method = directory.getShort(position + 10) & 0xFFFF;
+            long compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+            long size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+            final int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            final int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            final int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            long localHeaderOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+
+            final byte[] name = new byte[nameLength];
+            directory.position(position + 46);
+            directory.get(name);
+
+            // zip64 sizes and offset are stored in an extra field, in this order, when they do not fit
+            int extra = position + 46 + nameLength;
+            final int extraEnd = extra + extraLength;
+            while(extra + 4 <= extraEnd) {
+                final int id = directory.getShort(extra) & 0xFFFF;
+                final int length = directory.getShort(extra + 2) & 0xFFFF;
+                if(ZIP64_EXTRA == id) {
+                    int field = extra + 4;
+                    if(0xFFFFFFFFL == size) {
+                        size = directory.getLong(field);
+                        field += 8;
+                    }
+                    if(0xFFFFFFFFL == compressedSize) {
+                        compressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if(0xFFFFFFFFL == localHeaderOffset)
+                        localHeaderOffset = directory.getLong(field);
+                }
+                extra += 4 + length;
+            }
+
+            result.add(new Entry(new String(name, StandardCharsets.UTF_8), method, compressedSize, size, localHeaderOffset));
+            position = extraEnd + commentLength;
+        }
+        return result;
+    }
+
+    private ByteBuffer read(final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of zip file");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * The data of an entry, read with positional reads, optionally followed by a dummy byte for a raw inflater.
+     */
+    private class EntryInputStream extends InputStream {
+        private long position;
+        private long remaining;
+        private boolean dummy;
+
+        private EntryInputStream(final long position, final long length, final boolean dummy) {
+            this.position = position;
+            this.remaining = length;
+            this.dummy = dummy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return 1 == read(b, 0, 1) ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if(0 == len)
+                return 0;
+            if(0 == remaining) {
+                if(dummy) {
+                    dummy = false;
+                    b[off] = 0;
+                    return 1;
+                }
+                return -1;
+            }
+            final int length = channel.read(ByteBuffer.wrap(b, off, (int) Long.min(len, remaining)), position);
+            if(length < 0)
+                throw new IOException("Unexpected end of zip file");
+            position += length;
+            remaining -= length;
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return (int) Long.min(Integer.MAX_VALUE, remaining);
+        }
+    }
+}
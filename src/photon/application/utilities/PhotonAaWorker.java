@@ -54,8 +54,9 @@ public class PhotonAaWorker extends SwingWorker<Integer, String> implements IPho
 
     @Override
     protected void process(java.util.List<String> chunks) {
+        String progress = mainForm.metrics.getProgressInformation();
         for (String str : chunks) {
-            mainForm.layerInfo.setText(str);
+            mainForm.layerInfo.setText(progress.isEmpty() ? str : str + ", " + progress);
         }
     }
 
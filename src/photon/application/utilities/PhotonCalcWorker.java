@@ -46,8 +46,9 @@ public class PhotonCalcWorker extends SwingWorker<Integer, String> implements IP
 
     @Override
     protected void process(java.util.List<String> chunks) {
+        String progress = mainForm.metrics.getProgressInformation();
         for (String str : chunks) {
-            mainForm.layerInfo.setText(str);
+            mainForm.layerInfo.setText(progress.isEmpty() ? str : str + ", " + progress);
         }
     }
 
@@ -108,6 +108,7 @@ public class PhotonLoadWorker extends SwingWorker<Integer, String> implements IP
         publish("Loading file...");
         try {
             mainForm.photonFile = new PhotonFile();
+            mainForm.photonFile.setMetrics(mainForm.metrics);
             mainForm.photonFile.setMargin(mainForm.margin);
             mainForm.photonFile.readFile(file, this);
             publish("Complete...");
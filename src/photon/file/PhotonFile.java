@@ -28,7 +28,12 @@ import photon.file.parts.photon.PhotonFileHeader;
 import photon.file.parts.photons.PhotonsFileHeader;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import photon.application.extensions.prusasl1.file.PrusaSL1File;
@@ -47,19 +52,38 @@ public class PhotonFile {
     private StringBuilder islandList;
     private int islandLayerCount;
     private ArrayList<Integer> islandLayers;
+    private List<PhotonIslandBody> islandBodies;
+    private boolean islandBodiesChanged;
+    private BitSet changedLayers = new BitSet();
 
     private int margin;
     private ArrayList<Integer> marginLayers;
 
+    private boolean memoryMapped;
+    private File mappedFile;
+
+    private PhotonFileMetrics metrics = new PhotonFileMetrics();
 
     public PhotonFile readFile(File file, IPhotonProgress iPhotonProgress) throws Exception {
-        if (file.getName().toLowerCase().endsWith(".photons")) {
-            return readPhotonsFile(getBinaryData(file), iPhotonProgress);
-        }
-        else if (file.getName().toLowerCase().endsWith(".sl1")) {
-            return readPrusaSL1File(file, iPhotonProgress);
+        metrics.startPhase("readFile", 0);
+        try {
+            if (file.getName().toLowerCase().endsWith(".photons")) {
+                return readPhotonsFile(getBinaryData(file), iPhotonProgress);
+            }
+            else if (file.getName().toLowerCase().endsWith(".sl1")) {
+                return readPrusaSL1File(file, iPhotonProgress);
+            }
+            if (memoryMapped) {
+                mappedFile = file;
+                return readPhotonFile(PhotonFileBuffer.map(file), iPhotonProgress);
+            }
+            return readPhotonFile(PhotonFileBuffer.wrap(getBinaryData(file)), iPhotonProgress);
+        } finally {
+            if (layers != null) {
+                metrics.setFileLayerCount(layers.size());
+            }
+            metrics.endPhase(file.length());
         }
-        return readPhotonFile(getBinaryData(file), iPhotonProgress);
     }
 
     public PhotonFile readPrusaSL1File(File file, IPhotonProgress iPhotonProgress) throws Exception {
@@ -104,7 +128,7 @@ public class PhotonFile {
         return this;
     }
 
-    private PhotonFile readPhotonFile(byte[] file, IPhotonProgress iPhotonProgress) throws Exception {
+    private PhotonFile readPhotonFile(ByteBuffer file, IPhotonProgress iPhotonProgress) throws Exception {
         iPhotonProgress.showInfo("Reading Photon file header information...");
         PhotonFileHeader photonFileHeader = new PhotonFileHeader(file);
         iFileHeader = photonFileHeader;
@@ -125,12 +149,47 @@ public class PhotonFile {
     }
 
     public void saveFile(File file) throws Exception {
+        boolean replaceMappedFile = mappedFile != null && file.exists() && Files.isSameFile(file.toPath(), mappedFile.toPath());
+        if (replaceMappedFile) {
+            // The layers are read from the file we are about to replace
+            releaseMappedFile();
+        }
+        metrics.startPhase("saveFile", layers.size());
+        try {
+            if (replaceMappedFile) {
+                // The mapped file is never written, the new file is written next to it and moved over it
+                File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+                try {
+                    writeFile(tempFile);
+                    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } catch (FileSystemException e) {
+                    throw new IOException("Could not replace " + file + " while it is open, save to another file", e);
+                } finally {
+                    Files.deleteIfExists(tempFile.toPath());
+                }
+            } else {
+                writeFile(file);
+            }
+        } finally {
+            metrics.endPhase();
+        }
+    }
+
+    private void writeFile(File file) throws Exception {
         FileOutputStream fileOutputStream = new FileOutputStream(file);
         writeFile(fileOutputStream);
         fileOutputStream.flush();
         fileOutputStream.close();
     }
 
+    private void releaseMappedFile() {
+        // Copy the layers to the heap, so nothing is read from the old file after it is replaced
+        for (PhotonFileLayer layer : layers) {
+            layer.copyImageData();
+        }
+        mappedFile = null;
+    }
+
     private void writeFile(OutputStream outputStream) throws Exception {
         int antiAliasLevel = iFileHeader.getAALevels();
 
@@ -235,6 +294,15 @@ public class PhotonFile {
         return islandLayerCount;
     }
 
+    /**
+     * Get the unsupported bodies found by the last full calculation, or null if the file has not been calculated.
+     * When layers have been recalculated after an edit, the bodies are tracked again on first use.
+     */
+    public List<PhotonIslandBody> getIslandBodies() {
+        trackIslandBodies();
+        return islandBodies;
+    }
+
     public ArrayList<Integer> getIslandLayers() {
         if (islandList == null) {
             findIslands();
@@ -246,6 +314,32 @@ public class PhotonFile {
         this.margin = margin;
     }
 
+    /**
+     * Read photon and cbddlp files through a memory mapping instead of loading the file to the heap.
+     * The layers keep views into the mapping, so large files can be opened with a small heap.
+     * Off by default, as a mapped file can not be replaced on Windows while it is open, so it is meant for files
+     * that are only read, like in the batch validation.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    public PhotonFileMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Record the metrics of this file in another metrics object, like the metrics registered by the application.
+     * The phases recorded before are removed.
+     */
+    public void setMetrics(PhotonFileMetrics metrics) {
+        this.metrics = metrics;
+        metrics.clear();
+        if (layers != null) {
+            metrics.setFileLayerCount(layers.size());
+        }
+    }
+
     public ArrayList<Integer> getMarginLayers() {
         if (marginLayers == null) {
             return new ArrayList<>();
@@ -253,6 +347,24 @@ public class PhotonFile {
         return marginLayers;
     }
 
+    /**
+     * Get a validation report of the calculated file.
+     */
+    public PhotonValidationReport getValidationReport(String fileName) {
+        PhotonValidationReport report = new PhotonValidationReport(fileName, getLayerCount(), iFileHeader.getResolutionX(), iFileHeader.getResolutionY(), margin);
+        ArrayList<Integer> marginLayers = getMarginLayers();
+        for (int i = 0; i < layers.size(); i++) {
+            PhotonFileLayer layer = layers.get(i);
+            report.addLayer(i, layer.getPixels(), layer.getIsLandsCount(), marginLayers.contains(i));
+        }
+        report.setZdrift(getZdrift());
+        List<PhotonIslandBody> islandBodies = getIslandBodies();
+        if (islandBodies != null) {
+            report.setIslandBodies(islandBodies);
+        }
+        return report;
+    }
+
     public String getMarginInformation() {
         if (marginLayers == null) {
             return "No safety margin set, printing to the border.";
@@ -278,6 +390,21 @@ public class PhotonFile {
         }
     }
 
+    private String getBodyInformation() {
+        if (islandBodiesChanged && islandBodies != null) {
+            // the information is shown after every edit, so the bodies are not tracked through all the layers here
+            return " (unsupported bodies not updated since the last edit)";
+        }
+        if (islandBodies == null || islandBodies.isEmpty()) {
+            return "";
+        }
+        int height = 0;
+        for (PhotonIslandBody body : islandBodies) {
+            height = Integer.max(height, body.getHeight());
+        }
+        return " (" + islandBodies.size() + " unsupported bodies, up to " + height + " layers high)";
+    }
+
     public String getLayerInformation() {
         if (islandList == null) {
             findIslands();
@@ -285,9 +412,9 @@ public class PhotonFile {
         if (islandLayerCount == 0) {
             return "Whoopee, all is good, no unsupported areas";
         } else if (islandLayerCount == 1) {
-            return "Unsupported islands found in layer " + islandList.toString();
+            return "Unsupported islands found in layer " + islandList.toString() + getBodyInformation();
         }
-        return "Unsupported islands found in layers " + islandList.toString();
+        return "Unsupported islands found in layers " + islandList.toString() + getBodyInformation();
     }
 
     private void findIslands() {
@@ -358,7 +485,8 @@ public class PhotonFile {
 
 
     public void unLink() {
-        while (!layers.isEmpty()) {
+        // a file that could not be read can be released too
+        while (layers != null && !layers.isEmpty()) {
             PhotonFileLayer layer = layers.remove(0);
             layer.unLink();
         }
@@ -368,12 +496,20 @@ public class PhotonFile {
         if (marginLayers != null) {
             marginLayers.clear();
         }
-        iFileHeader.unLink();
-        iFileHeader = null;
-        previewOne.unLink();
-        previewOne = null;
-        previewTwo.unLink();
-        previewTwo = null;
+        islandBodies = null;
+        if (iFileHeader != null) {
+            iFileHeader.unLink();
+            iFileHeader = null;
+        }
+        if (previewOne != null) {
+            previewOne.unLink();
+            previewOne = null;
+        }
+        if (previewTwo != null) {
+            previewTwo.unLink();
+            previewTwo = null;
+        }
+        mappedFile = null;
         System.gc();
     }
 
@@ -392,29 +528,47 @@ public class PhotonFile {
     
     public void fixAll(IPhotonProgress progres) throws Exception {
     	boolean layerWasFixed = false;
-    	do {
-    		do {
-    			// Repeatedly fix layers until none are possible to fix
-    			// Fixing some layers can make other layers auto-fixable
-    			layerWasFixed = fixLayers(progres);
-    		} while(layerWasFixed);
-	    	if(islandLayers.size() > 0) {
-	    		// Nothing can be done further, just remove all layers left
-	    		layerWasFixed = removeAllIslands(progres) || layerWasFixed;
-	    	}
-	    	if(layerWasFixed && islandLayers.size() > 0) {
-	    		// We could've created new islands by removing islands, repeat fixing process
-	    		// until everything is fixed or nothing can be done
-    			progres.showInfo("<br>Some layers were fixed, but " + islandLayers.size() + " still unsupported, repeating...<br>");
-    		}
-    	} while(layerWasFixed);
+    	metrics.startPhase("fixAll", islandLayers.size());
+    	try {
+	    	do {
+	    		do {
+	    			// Repeatedly fix layers until none are possible to fix
+	    			// Fixing some layers can make other layers auto-fixable
+	    			layerWasFixed = fixLayers(progres);
+	    		} while(layerWasFixed);
+		    	if(islandLayers.size() > 0) {
+		    		// Nothing can be done further, just remove all layers left
+		    		layerWasFixed = removeAllIslands(progres) || layerWasFixed;
+		    	}
+		    	if(layerWasFixed && islandLayers.size() > 0) {
+		    		// We could've created new islands by removing islands, repeat fixing process
+		    		// until everything is fixed or nothing can be done
+	    			progres.showInfo("<br>Some layers were fixed, but " + islandLayers.size() + " still unsupported, repeating...<br>");
+	    		}
+	    	} while(layerWasFixed);
+    	} finally {
+    		metrics.endPhase();
+    	}
     }
     
     public boolean removeAllIslands(IPhotonProgress progres) throws Exception {
-    	boolean layersFixed = false;
     	progres.showInfo("Removing islands from " + islandLayers.size() + " layers...<br>");
+    	metrics.startPhase("removeAllIslands", islandLayers.size());
+    	try {
+    		return removeIslands(progres);
+    	} finally {
+    		metrics.endPhase();
+    		PhotonLayerBuffers.release();
+    	}
+    }
+
+    private boolean removeIslands(IPhotonProgress progres) throws Exception {
+    	boolean layersFixed = false;
 		PhotonLayer layer = null;
 		for (int layerNo : islandLayers) {
+	        calculateChanged(layerNo);
+	        long startNanos = System.nanoTime();
+	        long startAllocatedBytes = PhotonFileMetrics.getThreadAllocatedBytes();
 	        PhotonFileLayer fileLayer = layers.get(layerNo);
 	        if (layer == null) {
                 layer = fileLayer.getLayer();
@@ -423,31 +577,43 @@ public class PhotonFile {
             }
             progres.showInfo("Removing islands from layer " + layerNo);
 
-	        int removed = layer.removeIslands();
+	        int removed = layer.removeIslands(fileLayer.getIslandIndex());
 	        if(removed == 0) {
 	        	progres.showInfo(", but nothing could be done.");
 	        } else {
 	        	progres.showInfo(", " + removed + " islands removed");
 	            fileLayer.saveLayer(layer);
-	            calculate(layerNo);
-	            if (layerNo < getLayerCount() - 1) {
-                    calculate(layerNo + 1);
-                }
+	            markLayerChanged(layerNo);
 	            layersFixed = true;
 	        }
+	        metrics.addLayer(layerNo, startNanos, startAllocatedBytes, 0, 0, fileLayer.getIsLandsCount());
 	        progres.showInfo("<br>");
 		}
+		calculateChanged();
 		findIslands();
 		return layersFixed;
     }
 
     public boolean fixLayers(IPhotonProgress progres) throws Exception {
+        metrics.startPhase("fixLayers", islandLayers.size());
+        try {
+            return fixIslandLayers(progres);
+        } finally {
+            metrics.endPhase();
+            PhotonLayerBuffers.release();
+        }
+    }
+
+    private boolean fixIslandLayers(IPhotonProgress progres) throws Exception {
     	boolean layersFixed = false;
         PhotonLayer layer = null;
         for (int layerNo : islandLayers) {
             progres.showInfo("Checking layer " + layerNo);
 
             // Unpack the layer data to the layer utility class
+            calculateChanged(layerNo);
+            long startNanos = System.nanoTime();
+            long startAllocatedBytes = PhotonFileMetrics.getThreadAllocatedBytes();
             PhotonFileLayer fileLayer = layers.get(layerNo);
             if (layer == null) {
                 layer = fileLayer.getLayer();
@@ -460,16 +626,15 @@ public class PhotonFile {
                 progres.showInfo(", but nothing could be done.");
             } else {
                 fileLayer.saveLayer(layer);
-                calculate(layerNo);
-                if (layerNo < getLayerCount() - 1) {
-                    calculate(layerNo + 1);
-                }
+                markLayerChanged(layerNo);
                 layersFixed = true;
             }
+            metrics.addLayer(layerNo, startNanos, startAllocatedBytes, 0, 0, fileLayer.getIsLandsCount());
 
             progres.showInfo("<br>");
 
         }
+        calculateChanged();
         findIslands();
         return layersFixed;
     }
@@ -488,19 +653,100 @@ public class PhotonFile {
     }
 
     public void calculateAaLayers(IPhotonProgress progres, PhotonAaMatrix photonAaMatrix) throws Exception {
-        PhotonFileLayer.calculateAALayers((PhotonFileHeader) iFileHeader, layers, photonAaMatrix, progres);
+        metrics.startPhase("calculateAaLayers", layers.size());
+        try {
+            PhotonFileLayer.calculateAALayers((PhotonFileHeader) iFileHeader, layers, photonAaMatrix, progres, metrics);
+        } finally {
+            metrics.endPhase();
+        }
     }
 
     public void calculate(IPhotonProgress progres) throws Exception {
-        PhotonFileLayer.calculateLayers((PhotonFileHeader)iFileHeader, layers, margin, progres);
+        metrics.startPhase("calculate", layers.size());
+        try {
+            islandBodies = PhotonFileLayer.calculateLayers((PhotonFileHeader)iFileHeader, layers, margin, progres, metrics);
+        } finally {
+            metrics.endPhase();
+        }
+        changedLayers.clear();
+        islandBodiesChanged = false;
         resetMarginAndIslandInfo();
     }
 
     public void calculate(int layerNo) throws Exception {
-        PhotonFileLayer.calculateLayers((PhotonFileHeader)iFileHeader, layers, margin, layerNo);
+        metrics.startPhase("calculateLayer", 1);
+        try {
+            PhotonFileLayer.calculateLayers((PhotonFileHeader)iFileHeader, layers, margin, layerNo, metrics);
+        } finally {
+            metrics.endPhase();
+            PhotonLayerBuffers.release();
+        }
+        changedLayers.clear(layerNo);
+        islandBodiesChanged = true;
         resetMarginAndIslandInfo();
     }
 
+    /**
+     * Mark a layer as edited. The support of a layer only depends on its own image and the image of the layer below,
+     * so the layer and the layer above it are recalculated by the next calculateChanged.
+     */
+    public void markLayerChanged(int layerNo) {
+        changedLayers.set(layerNo, Integer.min(layerNo + 2, layers.size()));
+    }
+
+    /**
+     * Recalculate all the layers changed since the last calculation in one pass.
+     */
+    public void calculateChanged() throws Exception {
+        if (!changedLayers.isEmpty()) {
+            metrics.startPhase("calculateChanged", changedLayers.cardinality());
+            try {
+                PhotonFileLayer.calculateLayers((PhotonFileHeader)iFileHeader, layers, margin, changedLayers, metrics);
+            } finally {
+                metrics.endPhase();
+                // the edits are calculated on a long lived thread, like the user interface thread
+                PhotonLayerBuffers.release();
+            }
+            changedLayers.clear();
+            islandBodiesChanged = true;
+            resetMarginAndIslandInfo();
+        }
+    }
+
+    /**
+     * Bring a single layer up to date before it is read, when a layer below it has been changed.
+     */
+    private void calculateChanged(int layerNo) throws Exception {
+        if (changedLayers.get(layerNo)) {
+            BitSet layer = new BitSet();
+            layer.set(layerNo);
+            metrics.startPhase("calculateChanged", 1);
+            try {
+                PhotonFileLayer.calculateLayers((PhotonFileHeader)iFileHeader, layers, margin, layer, metrics);
+            } finally {
+                metrics.endPhase();
+            }
+            changedLayers.clear(layerNo);
+            islandBodiesChanged = true;
+        }
+    }
+
+    /**
+     * Track the unsupported bodies again when layers have been recalculated since they were found. The bodies can
+     * reach over any number of layers, so this is done once when they are used, not after every edit.
+     */
+    private void trackIslandBodies() {
+        if (islandBodiesChanged && islandBodies != null) {
+            metrics.startPhase("trackIslandBodies", layers.size());
+            try {
+                islandBodies = PhotonFileLayer.trackIslandBodies((PhotonFileHeader)iFileHeader, layers);
+            } finally {
+                metrics.endPhase();
+            }
+        }
+        islandBodiesChanged = false;
+    }
+
     private void resetMarginAndIslandInfo() {
         islandList = null;
         islandLayerCount = 0;
@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file;
+
+import photon.file.parts.*;
+import photon.file.parts.photon.PhotonFileHeader;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Validates a photon or cbddlp file layer by layer, reading from a file channel.
+ * <p/>
+ * The layer definitions are read in blocks, and only the bitmaps of the current layer and the layer below are kept,
+ * so the memory needed is the same for a small job and a multi GB 4K job. The anti alias layers are not read.
+ */
+public class PhotonStreamValidator {
+    private static final int HEADER_SIZE = 112;
+    private static final int LAYER_DEFINITION_SIZE = 36;
+    private static final int LAYER_DEFINITION_BLOCK = 1024;
+
+    private int margin;
+
+    public PhotonStreamValidator(int margin) {
+        this.margin = margin;
+    }
+
+    public PhotonValidationReport validate(File file, IPhotonProgress iPhotonProgress) throws Exception {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            PhotonFileHeader photonFileHeader = new PhotonFileHeader(read(channel, 0, (int) Long.min(HEADER_SIZE, channel.size()), null));
+            int resolutionX = photonFileHeader.getResolutionX();
+            int resolutionY = photonFileHeader.getResolutionY();
+            int layerCount = photonFileHeader.getNumberOfLayers();
+
+            PhotonValidationReport report = new PhotonValidationReport(file.getName(), layerCount, resolutionX, resolutionY, margin);
+            PhotonBitLayer bitLayer = new PhotonBitLayer(resolutionX, resolutionY);
+            PhotonIslandTracker islandTracker = new PhotonIslandTracker(resolutionX, resolutionY);
+
+            ByteBuffer definitions = null;
+            ByteBuffer imageData = null;
+            PhotonInputStream ds = null;
+            long[] bitmap = bitLayer.newBitmap();
+            long[] previousBitmap = null;
+            float layerPositionZ = 0;
+
+            for (int i = 0; i < layerCount; i++) {
+                if (i % LAYER_DEFINITION_BLOCK == 0) {
+                    int count = Integer.min(LAYER_DEFINITION_BLOCK, layerCount - i);
+                    long position = photonFileHeader.getLayersDefinitionOffsetAddress() + (long) i * LAYER_DEFINITION_SIZE;
+                    definitions = read(channel, position, count * LAYER_DEFINITION_SIZE, definitions);
+                    ds = new PhotonInputStream(PhotonFileBuffer.inputStream(definitions, 0));
+                }
+
+                iPhotonProgress.showInfo("Validating photon file layer " + (i + 1) + "/" + layerCount);
+
+                PhotonFileLayer layer = PhotonFileLayer.readLayer(photonFileHeader, ds);
+                imageData = read(channel, Integer.toUnsignedLong(layer.getDataAddress()), layer.getDataSize(), imageData);
+                layer.setImageData(imageData);
+
+                layer.calculate(bitmap, previousBitmap, margin, bitLayer);
+                long[] swap = previousBitmap != null ? previousBitmap : bitLayer.newBitmap();
+                previousBitmap = bitmap;
+                bitmap = swap;
+
+                islandTracker.add(layer.getPackedLayerImage());
+                report.addLayer(i, layer.getPixels(), layer.getIsLandsCount(), layer.doExtendMargin());
+                layerPositionZ = layer.getLayerPositionZ();
+                layer.unLink();
+            }
+
+            report.setZdrift(photonFileHeader.getLayerHeight() * (layerCount - 1) - layerPositionZ);
+            report.setIslandBodies(islandTracker.getIslandBodies());
+            bitLayer.unLink();
+            return report;
+        }
+    }
+
+    /**
+     * Read a part of the file, reusing the buffer when it is large enough.
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int length, ByteBuffer buffer) throws IOException {
+        if (buffer == null || buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(length);
+        }
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
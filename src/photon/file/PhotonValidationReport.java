@@ -0,0 +1,233 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file;
+
+import photon.file.parts.PhotonIslandBody;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The result of validating a photon file, island and margin layers, unsupported bodies and the Z drift.
+ */
+public class PhotonValidationReport {
+    private String fileName;
+    private int layerCount;
+    private int resolutionX;
+    private int resolutionY;
+    private long pixels;
+    private long islandPixels;
+    private float zDrift;
+    private int margin;
+
+    private ArrayList<Integer> islandLayers = new ArrayList<>();
+    private ArrayList<Integer> marginLayers = new ArrayList<>();
+    private List<PhotonIslandBody> islandBodies = new ArrayList<>();
+
+    public PhotonValidationReport(String fileName, int layerCount, int resolutionX, int resolutionY, int margin) {
+        this.fileName = fileName;
+        this.layerCount = layerCount;
+        this.resolutionX = resolutionX;
+        this.resolutionY = resolutionY;
+        this.margin = margin;
+    }
+
+    void addLayer(int layerNo, long layerPixels, int layerIslandPixels, boolean extendsMargin) {
+        pixels += layerPixels;
+        if (layerIslandPixels > 0) {
+            islandLayers.add(layerNo);
+            islandPixels += layerIslandPixels;
+        }
+        if (extendsMargin) {
+            marginLayers.add(layerNo);
+        }
+    }
+
+    void setZdrift(float zDrift) {
+        this.zDrift = zDrift;
+    }
+
+    void setIslandBodies(List<PhotonIslandBody> islandBodies) {
+        this.islandBodies = islandBodies;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getLayerCount() {
+        return layerCount;
+    }
+
+    public int getResolutionX() {
+        return resolutionX;
+    }
+
+    public int getResolutionY() {
+        return resolutionY;
+    }
+
+    public long getPixels() {
+        return pixels;
+    }
+
+    public long getIslandPixels() {
+        return islandPixels;
+    }
+
+    public float getZdrift() {
+        return zDrift;
+    }
+
+    public int getMargin() {
+        return margin;
+    }
+
+    public ArrayList<Integer> getIslandLayers() {
+        return islandLayers;
+    }
+
+    public ArrayList<Integer> getMarginLayers() {
+        return marginLayers;
+    }
+
+    public List<PhotonIslandBody> getIslandBodies() {
+        return islandBodies;
+    }
+
+    /**
+     * A file is valid when there are no islands and no layers extending beyond the margin.
+     */
+    public boolean isValid() {
+        return islandLayers.isEmpty() && marginLayers.isEmpty();
+    }
+
+    public static String getCsvHeader() {
+        return "file,layers,resolutionX,resolutionY,pixels,islandLayers,islandPixels,islandBodies,tallestBody,margin,marginLayers,zDrift,valid,error";
+    }
+
+    public String toCsv() {
+        int tallest = 0;
+        for (PhotonIslandBody body : islandBodies) {
+            tallest = Integer.max(tallest, body.getHeight());
+        }
+        return csv(fileName) + "," + layerCount + "," + resolutionX + "," + resolutionY + "," + pixels + "," + islandLayers.size() + ","
+                + islandPixels + "," + islandBodies.size() + "," + tallest + "," + margin + "," + marginLayers.size() + ","
+                + String.format(Locale.ROOT, "%.4f", zDrift) + "," + isValid() + ",";
+    }
+
+    public String toJson() {
+        StringBuilder builder = new StringBuilder("{");
+        builder.append("\"file\":").append(json(fileName));
+        builder.append(",\"layers\":").append(layerCount);
+        builder.append(",\"resolutionX\":").append(resolutionX);
+        builder.append(",\"resolutionY\":").append(resolutionY);
+        builder.append(",\"pixels\":").append(pixels);
+        builder.append(",\"islandPixels\":").append(islandPixels);
+        builder.append(",\"islandLayers\":").append(islandLayers);
+        builder.append(",\"islandBodies\":[");
+        for (int i = 0; i < islandBodies.size(); i++) {
+            PhotonIslandBody body = islandBodies.get(i);
+            if (i > 0) builder.append(",");
+            builder.append("{\"startLayer\":").append(body.getStartLayer())
+                    .append(",\"height\":").append(body.getHeight())
+                    .append(",\"volume\":").append(body.getVolume())
+                    .append(",\"supportedLayer\":").append(body.getSupportedLayer())
+                    .append(",\"x\":").append(body.getX())
+                    .append(",\"y\":").append(body.getY()).append("}");
+        }
+        builder.append("]");
+        builder.append(",\"margin\":").append(margin);
+        builder.append(",\"marginLayers\":").append(marginLayers);
+        builder.append(",\"zDrift\":").append(String.format(Locale.ROOT, "%.4f", zDrift));
+        builder.append(",\"valid\":").append(isValid());
+        return builder.append("}").toString();
+    }
+
+    /**
+     * Get a report for a file that could not be validated.
+     */
+    public static String toJson(String fileName, Exception e) {
+        return "{\"file\":" + json(fileName) + ",\"error\":" + json(getMessage(e)) + ",\"valid\":false}";
+    }
+
+    public static String toCsv(String fileName, Exception e) {
+        return csv(fileName) + ",,,,,,,,,,,,false," + csv(getMessage(e));
+    }
+
+    private static String getMessage(Exception e) {
+        return e.getMessage() != null ? e.getMessage() : e.toString();
+    }
+
+    private static String json(String str) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : str.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append("\"").toString();
+    }
+
+    private static String csv(String str) {
+        if (str.contains(",") || str.contains("\"") || str.contains("\n")) {
+            return "\"" + str.replace("\"", "\"\"") + "\"";
+        }
+        return str;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(fileName).append(": ").append(layerCount).append(" layers, ")
+                .append(resolutionX).append("x").append(resolutionY).append("\n");
+        if (islandLayers.isEmpty()) {
+            builder.append("No unsupported areas\n");
+        } else {
+            builder.append("Unsupported islands found in ").append(islandLayers.size()).append(" layers (")
+                    .append(islandPixels).append(" pixels), ").append(islandBodies.size()).append(" unsupported bodies\n");
+            for (int i = 0; i < islandBodies.size(); i++) {
+                if (i == 10) {
+                    builder.append("  ...\n");
+                    break;
+                }
+                PhotonIslandBody body = islandBodies.get(i);
+                builder.append(String.format("  layer %6d, %5d layers high, %9d pixels, %s\n", body.getStartLayer(), body.getHeight(), body.getVolume(),
+                        body.isSupported() ? "supported at layer " + body.getSupportedLayer() : "never supported"));
+            }
+        }
+        if (margin > 0) {
+            builder.append(marginLayers.isEmpty() ? "Within the safety margin" : marginLayers.size() + " layers extend beyond the margin")
+                    .append(" (").append(margin).append(" pixels)\n");
+        }
+        builder.append(String.format("Z drift: %.4f mm\n", zDrift));
+        return builder.toString();
+    }
+}
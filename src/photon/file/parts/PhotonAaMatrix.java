@@ -24,16 +24,21 @@
 
 package photon.file.parts;
 
+import java.util.Arrays;
+
+/**
+ * A 5x5 anti aliasing filter, applied to the greyscale image of a layer.
+ * Rows of the matrix with a sum of zero or less are not used, but still count in the divisor,
+ * and pixels outside the image are replaced by the center pixel.
+ */
 public class PhotonAaMatrix {
+    private static final int TILE_SIZE = 32;
 
-    public Integer[][] aaMatrix = new Integer[5][5];
-    private Boolean[] hasDivisor = new Boolean[5];
+    public int[][] aaMatrix = new int[5][5];
 
     public void clear() {
         for (int y = 0; y < 5; y++) {
-            for (int x = 0; x < 5; x++) {
-                aaMatrix[y][x] = 0;
-            }
+            Arrays.fill(aaMatrix[y], 0);
         }
     }
 
@@ -43,54 +48,411 @@ public class PhotonAaMatrix {
 
     public int[][] calc(int[][] source) {
         int[][] target = null;
-
         if (source!=null) {
-            target = source.clone();
+            target = new int[source.length][source.length > 0 ? source[0].length : 0];
+            calc(source, target);
+        }
+        return target;
+    }
+
+    /**
+     * Filter the source into the target, which must have the size of the source and must not be the source.
+     */
+    public void calc(int[][] source, int[][] target) {
+        int height = source.length;
+        if (height == 0 || source[0].length == 0) {
+            return;
+        }
+        int width = source[0].length;
+
+        // the kernel is prepared on each call, as the layers are filtered on several threads at once
+        Kernel kernel = new Kernel(aaMatrix);
+        if (kernel.divisor <= 0) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(source[y], 0, target[y], 0, width);
+            }
+            return;
+        }
+
+        int[][] buffer = kernel.separable ? new int[TILE_SIZE + 4][TILE_SIZE] : null;
+        for (int y0 = 0; y0 < height; y0 += TILE_SIZE) {
+            int y1 = Integer.min(y0 + TILE_SIZE, height);
+            for (int x0 = 0; x0 < width; x0 += TILE_SIZE) {
+                int x1 = Integer.min(x0 + TILE_SIZE, width);
+                if (isUniform(source, y0 - 2, y1 + 2, x0 - 2, x1 + 2)) {
+                    // solid or empty, every tap sees the same value
+                    int value = source[y0][x0] * kernel.weight / kernel.divisor;
+                    for (int y = y0; y < y1; y++) {
+                        Arrays.fill(target[y], x0, x1, value);
+                    }
+                } else {
+                    calcTile(kernel, source, target, buffer, y0, y1, x0, x1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Filter a layer bitmap, where the set pixels are 255, into a bitmap per threshold of the pixels that reach it.
+     * <p/>
+     * Only the pixels within two pixels of an edge are filtered. All other pixels have a neighbourhood of a single
+     * value, which is found for 64 pixels at a time, so the cost follows the perimeter of the layer and not its area.
+     */
+    public void calc(long[] bitmap, int width, int height, int[] thresholds, long[][] levels) {
+        int words = (width + 63) >>> 6;
+        for (long[] level : levels) {
+            Arrays.fill(level, 0, words * height, 0);
+        }
+        if (height == 0 || width == 0) {
+            return;
+        }
+
+        Kernel kernel = new Kernel(aaMatrix);
+        boolean filter = kernel.divisor > 0;
+        int solidValue = filter ? 255 * kernel.weight / kernel.divisor : 255;
+        int emptyValue = 0;
+
+        long lastMask = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+        long[] rowAny = new long[words];
+        long[] rowAll = new long[words];
+        long[] levelWords = new long[thresholds.length];
+        for (int y = 0; y < height; y++) {
+            int offset = y * words;
+            boolean interiorRow = y >= 2 && y < height - 2;
+
+            // the rows two above to two below, clipped to the image
+            if (filter) {
+                Arrays.fill(rowAny, 0);
+                Arrays.fill(rowAll, -1L);
+                for (int dy = Integer.max(0, y - 2); dy <= Integer.min(height - 1, y + 2); dy++) {
+                    for (int w = 0; w < words; w++) {
+                        rowAny[w] |= bitmap[dy * words + w];
+                        rowAll[w] &= bitmap[dy * words + w];
+                    }
+                }
+            } else {
+                System.arraycopy(bitmap, offset, rowAny, 0, words);
+                System.arraycopy(bitmap, offset, rowAll, 0, words);
+            }
+            // pixels right of the image do not count
+            rowAll[words - 1] |= ~lastMask;
+
+            for (int w = 0; w < words; w++) {
+                long any = rowAny[w];
+                long all = rowAll[w];
+                if (filter) {
+                    // the columns two left to two right
+                    long previousAny = w > 0 ? rowAny[w - 1] : 0;
+                    long nextAny = w < words - 1 ? rowAny[w + 1] : 0;
+                    long previousAll = w > 0 ? rowAll[w - 1] : -1L;
+                    long nextAll = w < words - 1 ? rowAll[w + 1] : -1L;
+                    any |= (any << 1) | (previousAny >>> 63) | (any << 2) | (previousAny >>> 62)
+                            | (any >>> 1) | (nextAny << 63) | (any >>> 2) | (nextAny << 62);
+                    all &= ((all << 1) | (previousAll >>> 63)) & ((all << 2) | (previousAll >>> 62))
+                            & ((all >>> 1) | (nextAll << 63)) & ((all >>> 2) | (nextAll << 62));
+                }
+                long valid = w == words - 1 ? lastMask : -1L;
+                long solid = all & valid;
+                long empty = ~any & valid;
+                long edge = any & ~all & valid;
+
+                for (int i = 0; i < thresholds.length; i++) {
+                    levelWords[i] = (solidValue >= thresholds[i] ? solid : 0) | (emptyValue >= thresholds[i] ? empty : 0);
+                }
+                while (edge != 0) {
+                    long bit = edge & -edge;
+                    int x = (w << 6) + Long.numberOfTrailingZeros(edge);
+                    int sum = interiorRow && x >= 2 && x < width - 2
+                            ? calcInterior(kernel, bitmap, offset, words, x)
+                            : calcBorder(kernel, bitmap, words, width, height, y, x);
+                    int value = 255 * sum / kernel.divisor;
+                    for (int i = 0; i < thresholds.length; i++) {
+                        if (value >= thresholds[i]) {
+                            levelWords[i] |= bit;
+                        }
+                    }
+                    edge ^= bit;
+                }
+                for (int i = 0; i < thresholds.length; i++) {
+                    levels[i][offset + w] = levelWords[i];
+                }
+            }
+        }
+    }
+
+    private static boolean isUniform(int[][] source, int y0, int y1, int x0, int x1) {
+        y0 = Integer.max(y0, 0);
+        y1 = Integer.min(y1, source.length);
+        x0 = Integer.max(x0, 0);
+        x1 = Integer.min(x1, source[0].length);
+        int value = source[y0][x0];
+        for (int y = y0; y < y1; y++) {
+            int[] row = source[y];
+            for (int x = x0; x < x1; x++) {
+                if (row[x] != value) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void calcTile(Kernel kernel, int[][] source, int[][] target, int[][] buffer, int y0, int y1, int x0, int x1) {
+        int height = source.length;
+        int width = source[0].length;
+
+        // the part of the tile where all taps are inside the image
+        int iy0 = Integer.max(y0, 2);
+        int iy1 = Integer.min(y1, height - 2);
+        int ix0 = Integer.max(x0, 2);
+        int ix1 = Integer.min(x1, width - 2);
+        boolean hasInterior = iy0 < iy1 && ix0 < ix1;
+
+        if (hasInterior) {
+            if (kernel.separable) {
+                calcSeparable(kernel, source, target, buffer, iy0, iy1, ix0, ix1);
+            } else {
+                calcInterior(kernel, source, target, iy0, iy1, ix0, ix1);
+            }
+        }
+
+        for (int y = y0; y < y1; y++) {
+            int[] targetRow = target[y];
+            boolean inside = hasInterior && y >= iy0 && y < iy1;
+            for (int x = x0; x < x1; x++) {
+                if (inside && x == ix0) {
+                    x = ix1 - 1;
+                } else {
+                    targetRow[x] = calcBorder(kernel, source, y, x) / kernel.divisor;
+                }
+            }
+        }
+    }
+
+    private static void calcSeparable(Kernel kernel, int[][] source, int[][] target, int[][] buffer, int y0, int y1, int x0, int x1) {
+        int[] rowOffsets = kernel.rowOffsets;
+        int[] rowWeights = kernel.rowWeights;
+        int[] columnOffsets = kernel.columnOffsets;
+        int[] columnWeights = kernel.columnWeights;
+
+        // horizontal pass into the buffer, from two rows above to two rows below the tile
+        for (int y = y0 - 2; y < y1 + 2; y++) {
+            int[] sourceRow = source[y];
+            int[] bufferRow = buffer[y - y0 + 2];
+            for (int x = x0; x < x1; x++) {
+                int sum = 0;
+                for (int i = 0; i < rowWeights.length; i++) {
+                    sum += sourceRow[x + rowOffsets[i]] * rowWeights[i];
+                }
+                bufferRow[x - x0] = sum;
+            }
+        }
 
-            int divisor = 0;
+        // vertical pass into the target
+        for (int y = y0; y < y1; y++) {
+            int[] targetRow = target[y];
+            int by = y - y0 + 2;
+            for (int x = x0; x < x1; x++) {
+                int bx = x - x0;
+                int sum = 0;
+                for (int i = 0; i < columnWeights.length; i++) {
+                    sum += buffer[by + columnOffsets[i]][bx] * columnWeights[i];
+                }
+                targetRow[x] = sum / kernel.divisor;
+            }
+        }
+    }
+
+    private static void calcInterior(Kernel kernel, int[][] source, int[][] target, int y0, int y1, int x0, int x1) {
+        int taps = kernel.tapWeight.length;
+        int[][] tapRows = new int[taps][];
+        for (int y = y0; y < y1; y++) {
+            for (int t = 0; t < taps; t++) {
+                tapRows[t] = source[y + kernel.tapY[t]];
+            }
+            int[] targetRow = target[y];
+            for (int x = x0; x < x1; x++) {
+                int sum = 0;
+                for (int t = 0; t < taps; t++) {
+                    sum += tapRows[t][x + kernel.tapX[t]] * kernel.tapWeight[t];
+                }
+                targetRow[x] = sum / kernel.divisor;
+            }
+        }
+    }
+
+    private static int calcBorder(Kernel kernel, int[][] source, int y, int x) {
+        int height = source.length;
+        int width = source[0].length;
+        int center = source[y][x];
+        int sum = 0;
+        for (int t = 0; t < kernel.tapWeight.length; t++) {
+            int dy = y + kernel.tapY[t];
+            int dx = x + kernel.tapX[t];
+            // unsigned compares check both ends of the range at once
+            boolean inside = Integer.compareUnsigned(dy, height) < 0 && Integer.compareUnsigned(dx, width) < 0;
+            sum += (inside ? source[dy][dx] : center) * kernel.tapWeight[t];
+        }
+        return sum;
+    }
+
+    /**
+     * The sum of the weights of the set pixels around a pixel of a bitmap, where all taps are inside the bitmap.
+     */
+    private static int calcInterior(Kernel kernel, long[] bitmap, int offset, int words, int x) {
+        int sum = 0;
+        for (int t = 0; t < kernel.tapWeight.length; t++) {
+            int dx = x + kernel.tapX[t];
+            sum += (int) ((bitmap[offset + kernel.tapY[t] * words + (dx >>> 6)] >>> dx) & 1) * kernel.tapWeight[t];
+        }
+        return sum;
+    }
+
+    /**
+     * The sum of the weights of the set pixels around a pixel of a bitmap.
+     */
+    private static int calcBorder(Kernel kernel, long[] bitmap, int words, int width, int height, int y, int x) {
+        long center = bitmap[y * words + (x >>> 6)] >>> x;
+        int sum = 0;
+        for (int t = 0; t < kernel.tapWeight.length; t++) {
+            int dy = y + kernel.tapY[t];
+            int dx = x + kernel.tapX[t];
+            boolean inside = Integer.compareUnsigned(dy, height) < 0 && Integer.compareUnsigned(dx, width) < 0;
+            long pixel = inside ? bitmap[dy * words + (dx >>> 6)] >>> dx : center;
+            sum += (int) (pixel & 1) * kernel.tapWeight[t];
+        }
+        return sum;
+    }
+
+    /**
+     * The used part of the matrix as a list of taps, and as a row and a column vector when the matrix is separable.
+     */
+    private static class Kernel {
+        private int divisor;
+        private int weight;
+        private int[] tapY;
+        private int[] tapX;
+        private int[] tapWeight;
+        private boolean separable;
+        private int[] rowOffsets;
+        private int[] rowWeights;
+        private int[] columnOffsets;
+        private int[] columnWeights;
+
+        private Kernel(int[][] aaMatrix) {
+            int[][] matrix = new int[5][5];
+            int taps = 0;
             for (int y = 0; y < 5; y++) {
-                int rowDivistor = 0;
+                int rowDivisor = 0;
                 for (int x = 0; x < 5; x++) {
-                    rowDivistor += aaMatrix[y][x];
-                }
-                hasDivisor[y] = (rowDivistor>0);
-                divisor += rowDivistor;
-            }
-
-            if (divisor >0) {
-                int height = source.length;
-                if (height > 0) {
-                    int width = source[0].length;
-                    if (width > 0) {
-                        int sum;;
-                        int dy;
-                        int dx;
-                        for (int y = 0; y < height; y++) {
-                            for (int x = 0; x < width; x++) {
-                                sum = 0;
-                                for (int cy = -2; cy <= 2; cy++) {
-                                    if (hasDivisor[2+cy])
-                                        for (int cx = -2; cx <= 2; cx++) {
-                                            dy = y+cy;
-                                            dx = x+cx;
-                                            if (dy>=0 && dy< height) {
-                                                if (dx>=0 && dx< width) {
-                                                    sum += source[dy][dx] * aaMatrix[2+cy][2+cx];
-                                                } else {
-                                                    sum += source[y][x] * aaMatrix[2+cy][2+cx];
-                                                }
-                                            } else {
-                                                sum += source[y][x] * aaMatrix[2+cy][2+cx];
-                                            }
-                                        }
-                                }
-                                target[y][x] = sum / divisor;
-                            }
+                    rowDivisor += aaMatrix[y][x];
+                }
+                divisor += rowDivisor;
+                if (rowDivisor > 0) {
+                    for (int x = 0; x < 5; x++) {
+                        matrix[y][x] = aaMatrix[y][x];
+                        weight += matrix[y][x];
+                        if (matrix[y][x] != 0) {
+                            taps++;
                         }
                     }
                 }
             }
+
+            tapY = new int[taps];
+            tapX = new int[taps];
+            tapWeight = new int[taps];
+            int t = 0;
+            for (int y = 0; y < 5; y++) {
+                for (int x = 0; x < 5; x++) {
+                    if (matrix[y][x] != 0) {
+                        tapY[t] = y - 2;
+                        tapX[t] = x - 2;
+                        tapWeight[t++] = matrix[y][x];
+                    }
+                }
+            }
+
+            findSeparable(matrix, taps);
+        }
+
+        /**
+         * Split the matrix into a column times a row, when that uses fewer taps, as for the box and gaussian blurs.
+         */
+        private void findSeparable(int[][] matrix, int taps) {
+            int pivotY = -1;
+            int pivotX = -1;
+            for (int y = 0; y < 5 && pivotY < 0; y++) {
+                for (int x = 0; x < 5; x++) {
+                    if (matrix[y][x] != 0) {
+                        pivotY = y;
+                        pivotX = x;
+                        break;
+                    }
+                }
+            }
+            if (pivotY < 0) {
+                return;
+            }
+
+            // the row is the pivot row divided by its greatest common divisor, the column follows from it
+            int[] row = matrix[pivotY].clone();
+            int gcd = 0;
+            for (int x = 0; x < 5; x++) {
+                gcd = gcd(gcd, Math.abs(row[x]));
+            }
+            for (int x = 0; x < 5; x++) {
+                row[x] /= gcd;
+            }
+            int[] column = new int[5];
+            for (int y = 0; y < 5; y++) {
+                if (matrix[y][pivotX] % row[pivotX] != 0) {
+                    return;
+                }
+                column[y] = matrix[y][pivotX] / row[pivotX];
+            }
+
+            int rowTaps = 0;
+            int columnTaps = 0;
+            for (int i = 0; i < 5; i++) {
+                if (row[i] != 0) {
+                    rowTaps++;
+                }
+                if (column[i] != 0) {
+                    columnTaps++;
+                }
+                for (int j = 0; j < 5; j++) {
+                    if (matrix[i][j] != column[i] * row[j]) {
+                        return;
+                    }
+                }
+            }
+            if (rowTaps + columnTaps < taps) {
+                separable = true;
+                rowOffsets = new int[rowTaps];
+                rowWeights = new int[rowTaps];
+                columnOffsets = new int[columnTaps];
+                columnWeights = new int[columnTaps];
+                for (int i = 0, r = 0, c = 0; i < 5; i++) {
+                    if (row[i] != 0) {
+                        rowOffsets[r] = i - 2;
+                        rowWeights[r++] = row[i];
+                    }
+                    if (column[i] != 0) {
+                        columnOffsets[c] = i - 2;
+                        columnWeights[c++] = column[i];
+                    }
+                }
+            }
+        }
+
+        private static int gcd(int a, int b) {
+            while (b != 0) {
+                int r = a % b;
+                a = b;
+                b = r;
+            }
+            return a;
         }
-        return target;
     }
 }
@@ -0,0 +1,335 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file.parts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A layer store for the island calculation, packing the pixel states in two bit planes.
+ * <p/>
+ * The support plane holds the low bit of the state (SUPPORTED and CONNECTED) and the island plane holds the
+ * high bit (ISLAND and CONNECTED), so a pixel state is the same code as in PhotonLayer. Each row is stored as
+ * 64 pixel words, so support, dilation and counting are done a word at a time.
+ */
+public class PhotonBitLayer {
+    private int width;
+    private int height;
+    private int words;
+
+    private long[] supportPlane;
+    private long[] islandPlane;
+
+    private long[] seeds;
+
+    public PhotonBitLayer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.words = (width + 63) >>> 6;
+
+        supportPlane = new long[height * words];
+        islandPlane = new long[height * words];
+        seeds = new long[words];
+    }
+
+    /**
+     * Set all rows from the bitmaps of the layer and the layer below, a null bitmap below supports all pixels.
+     */
+    public void setLayer(long[] current, long[] previous) {
+        for (int i = 0; i < supportPlane.length; i++) {
+            long below = previous == null ? -1L : previous[i];
+            supportPlane[i] = current[i] & below;
+            islandPlane[i] = current[i] & ~below;
+        }
+    }
+
+    /**
+     * Get a bitmap with the same layout as the planes, for decoding a layer image.
+     */
+    public long[] newBitmap() {
+        return new long[height * words];
+    }
+
+    public byte get(int x, int y) {
+        int index = y * words + (x >>> 6);
+        return (byte) ((supportPlane[index] >>> x & 1L) | (islandPlane[index] >>> x & 1L) << 1);
+    }
+
+    /**
+     * Connect islands to the supported pixels.
+     * <p/>
+     * Island pixels next to a supported or connected pixel are found a word at a time, and each of them starts a
+     * scanline flood fill that turns the island area into connected pixels. The fill uses an explicit stack of
+     * spans, so it is a single pass without recursion.
+     */
+    public void reduce() {
+        if (getIslandCount() == 0) {
+            return;
+        }
+        int[] stack = new int[256];
+        for (int y = 0; y < height; y++) {
+            if (findSeeds(y)) {
+                int offset = y * words;
+                int x = nextSeed(0);
+                while (x >= 0) {
+                    if (isIsland(offset, x)) {
+                        stack = fill(x, y, stack);
+                    }
+                    x = x + 1 < width ? nextSeed(x + 1) : -1;
+                }
+            }
+        }
+    }
+
+    private boolean findSeeds(int y) {
+        int offset = y * words;
+        int above = y > 0 ? offset - words : -1;
+        int below = y < (height - 1) ? offset + words : -1;
+
+        // Island pixels with a supported or connected neighbour
+        boolean found = false;
+        for (int w = 0; w < words; w++) {
+            long islands = islandPlane[offset + w] & ~supportPlane[offset + w];
+            if (islands == 0) {
+                seeds[w] = 0;
+                continue;
+            }
+            long support = supportPlane[offset + w];
+            long neighbours = (support << 1) | (support >>> 1);
+            if (w > 0) {
+                neighbours |= supportPlane[offset + w - 1] >>> 63;
+            }
+            if (w < words - 1) {
+                neighbours |= supportPlane[offset + w + 1] << 63;
+            }
+            if (above >= 0) {
+                neighbours |= supportPlane[above + w];
+            }
+            if (below >= 0) {
+                neighbours |= supportPlane[below + w];
+            }
+            seeds[w] = islands & neighbours;
+            found |= seeds[w] != 0;
+        }
+        return found;
+    }
+
+    private int[] fill(int startX, int startY, int[] stack) {
+        int top = 0;
+        stack[top++] = startY * width + startX;
+        while (top > 0) {
+            int seed = stack[--top];
+            int y = seed / width;
+            int x = seed % width;
+            int offset = y * words;
+            if (!isIsland(offset, x)) {
+                continue;
+            }
+
+            int left = previousNonIsland(offset, x) + 1;
+            int right = nextNonIsland(offset, x, width);
+            setRange(supportPlane, offset, left, right);
+
+            // Push one seed for each island span touching the filled span in the rows above and below
+            for (int ny = y - 1; ny <= y + 1; ny += 2) {
+                if (ny >= 0 && ny < height) {
+                    int nOffset = ny * words;
+                    int i = nextIsland(nOffset, left, right);
+                    while (i >= 0) {
+                        if (top == stack.length) {
+                            stack = Arrays.copyOf(stack, stack.length * 2);
+                        }
+                        stack[top++] = ny * width + i;
+                        int end = nextNonIsland(nOffset, i, right);
+                        i = end < right ? nextIsland(nOffset, end, right) : -1;
+                    }
+                }
+            }
+        }
+        return stack;
+    }
+
+    private long islands(int index) {
+        return islandPlane[index] & ~supportPlane[index];
+    }
+
+    private boolean isIsland(int offset, int x) {
+        return (islands(offset + (x >>> 6)) >>> x & 1L) != 0;
+    }
+
+    private int nextIsland(int offset, int from, int limit) {
+        int w = from >>> 6;
+        long word = islands(offset + w) & (-1L << from);
+        while (word == 0) {
+            if (++w << 6 >= limit) {
+                return -1;
+            }
+            word = islands(offset + w);
+        }
+        int x = (w << 6) + Long.numberOfTrailingZeros(word);
+        return x < limit ? x : -1;
+    }
+
+    private int nextNonIsland(int offset, int from, int limit) {
+        int w = from >>> 6;
+        long word = ~islands(offset + w) & (-1L << from);
+        while (word == 0) {
+            if (++w << 6 >= limit) {
+                return limit;
+            }
+            word = ~islands(offset + w);
+        }
+        return Integer.min((w << 6) + Long.numberOfTrailingZeros(word), limit);
+    }
+
+    private int previousNonIsland(int offset, int from) {
+        int w = from >>> 6;
+        long word = ~islands(offset + w) & (-1L >>> (63 - (from & 63)));
+        while (word == 0) {
+            if (--w < 0) {
+                return -1;
+            }
+            word = ~islands(offset + w);
+        }
+        return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+    }
+
+    private int nextSeed(int from) {
+        int w = from >>> 6;
+        long word = seeds[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == words) {
+                return -1;
+            }
+            word = seeds[w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    static void setRange(long[] plane, int offset, int start, int end) {
+        int first = start >>> 6;
+        int last = (end - 1) >>> 6;
+        long firstMask = -1L << start;
+        long lastMask = -1L >>> -end;
+        if (first == last) {
+            plane[offset + first] |= firstMask & lastMask;
+        } else {
+            plane[offset + first] |= firstMask;
+            for (int w = first + 1; w < last; w++) {
+                plane[offset + w] = -1L;
+            }
+            plane[offset + last] |= lastMask;
+        }
+    }
+
+    public int getIslandCount() {
+        int count = 0;
+        for (int i = 0; i < islandPlane.length; i++) {
+            count += Long.bitCount(islandPlane[i] & ~supportPlane[i]);
+        }
+        return count;
+    }
+
+    public int setIslands(ArrayList<BitSet> islandRows) {
+        int islands = 0;
+        long[] row = new long[words];
+        for (int y = 0; y < height; y++) {
+            int offset = y * words;
+            int rowIslands = 0;
+            for (int w = 0; w < words; w++) {
+                row[w] = islandPlane[offset + w] & ~supportPlane[offset + w];
+                rowIslands += Long.bitCount(row[w]);
+            }
+            islandRows.add(rowIslands > 0 ? BitSet.valueOf(row) : new BitSet());
+            islands += rowIslands;
+        }
+        return islands;
+    }
+
+    public byte[] packLayerImage() {
+        PhotonLayerBuffers buffers = PhotonLayerBuffers.get();
+        byte[] scratchPad = buffers.growScratchPad(2 * width);
+        int ptr = 0;
+        for (int y = 0; y < height; y++) {
+            if (ptr + 2 * width > scratchPad.length) {
+                scratchPad = buffers.growScratchPad(ptr + 2 * width);
+            }
+            int offset = y * words;
+            if (isEmptyRow(offset)) {
+                ptr = PhotonLayer.add(scratchPad, ptr, PhotonLayer.OFF, width);
+            } else {
+                int x = 0;
+                while (x < width) {
+                    byte current = get(x, y);
+                    int end = runEnd(offset, x, current);
+                    ptr = PhotonLayer.add(scratchPad, ptr, current, end - x);
+                    x = end;
+                }
+            }
+        }
+        return Arrays.copyOf(scratchPad, ptr);
+    }
+
+    /**
+     * Find the end of the run of pixels with the state of x, where either plane differs from the state.
+     */
+    private int runEnd(int offset, int x, byte state) {
+        long support = (state & 1) != 0 ? -1L : 0L;
+        long island = (state & 2) != 0 ? -1L : 0L;
+        int w = x >>> 6;
+        long diff = ((supportPlane[offset + w] ^ support) | (islandPlane[offset + w] ^ island)) & (-1L << x);
+        while (diff == 0) {
+            if (++w == words) {
+                return width;
+            }
+            diff = (supportPlane[offset + w] ^ support) | (islandPlane[offset + w] ^ island);
+        }
+        return Integer.min(width, (w << 6) + Long.numberOfTrailingZeros(diff));
+    }
+
+    private boolean isEmptyRow(int offset) {
+        for (int w = 0; w < words; w++) {
+            if ((supportPlane[offset + w] | islandPlane[offset + w]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void unLink() {
+        supportPlane = null;
+        islandPlane = null;
+        seeds = null;
+    }
+}
@@ -26,24 +26,31 @@ package photon.file.parts;
 
 import photon.file.parts.photon.PhotonFileHeader;
 
-import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import photon.application.extensions.prusasl1.file.utilites.DepthBuffer;
+import photon.application.extensions.prusasl1.file.utilites.PngLayerTranscoder;
 import photon.application.extensions.prusasl1.file.parts.PrusaSL1FileLayer;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * by bn on 01/07/2018.
  */
 public class PhotonFileLayer {
+    private static final int MIN_CHUNK_SIZE = 16;
+    private static final int CHUNKS_PER_CORE = 4;
+    private static final PhotonIslandIndex NO_ISLANDS = new PhotonIslandIndex(new ArrayList<>());
+
     private float layerPositionZ;
     private float layerExposure;
     private float layerOffTimeSeconds;
@@ -54,12 +61,13 @@ public class PhotonFileLayer {
     private int unknown3;
     private int unknown4;
 
-    private byte[] imageData;
+    private ByteBuffer imageData;
 
     private byte[] packedLayerImage;
 
     private ArrayList<BitSet> islandRows;
     private int isLandsCount;
+    private PhotonIslandIndex islandIndex;
     private long pixels;
 
     private ArrayList<PhotonFileLayer> antiAliasLayers = new ArrayList<>();
@@ -68,13 +76,13 @@ public class PhotonFileLayer {
     private PhotonFileHeader photonFileHeader;
     public boolean isCalculated;
 
-    private PhotonFileLayer(PhotonFileHeader photonFileHeader, int layerNum, byte[] imageData) {
+    private PhotonFileLayer(PhotonFileHeader photonFileHeader, int layerNum, ByteBuffer imageData) {
         layerPositionZ = layerNum * photonFileHeader.getLayerHeight();
         layerExposure = layerNum <= photonFileHeader.getBottomLayers() ? photonFileHeader.getBottomExposureTimeSeconds() : photonFileHeader.getExposureTimeSeconds();
         layerOffTimeSeconds = photonFileHeader.getOffTimeSeconds();
 
         dataAddress = 0;
-        dataSize = imageData.length;
+        dataSize = imageData.limit();
 
         unknown1 = 0;
         unknown2 = 0;
@@ -99,6 +107,15 @@ public class PhotonFileLayer {
         unknown4 = ds.readInt();
     }
 
+    /**
+     * Read a single layer definition, the image data is read separately and set with setImageData.
+     */
+    public static PhotonFileLayer readLayer(PhotonFileHeader photonFileHeader, PhotonInputStream ds) throws Exception {
+        PhotonFileLayer layer = new PhotonFileLayer(ds);
+        layer.photonFileHeader = photonFileHeader;
+        return layer;
+    }
+
     public PhotonFileLayer(PhotonFileLayer photonFileLayer, PhotonFileHeader photonFileHeader) {
         layerPositionZ = photonFileLayer.layerPositionZ;
         layerExposure = photonFileLayer.layerExposure;
@@ -133,7 +150,7 @@ public class PhotonFileLayer {
     }
 
     public void saveData(PhotonOutputStream os) throws Exception {
-        os.write(imageData, 0, dataSize);
+        os.write(imageData, dataSize);
     }
 
     public static int getByteSize() {
@@ -147,7 +164,8 @@ public class PhotonFileLayer {
         BitSet currentRow = new BitSet(resolutionX);
         unpackedImage.add(currentRow);
         int x = 0;
-        for (byte rle : imageData) {
+        for (int i = 0; i < dataSize; i++) {
+            byte rle = imageData.get(i);
             int length = rle & 0x7F;
             boolean color = (rle & 0x80) == 0x80;
             if (color) {
@@ -191,155 +209,166 @@ public class PhotonFileLayer {
         }
     }
 
-    private void unknownPixels(ArrayList<BitSet> unpackedImage, PhotonLayer photonLayer) {
-        photonLayer.clear();
+    /**
+     * Decode the layer image into a bitmap of 64 pixel words per row, counting the pixels in the same pass.
+     * The bitmap is supplied by the caller, so it can be reused for every layer.
+     */
+    public void unpackImage(long[] bitmap, int resolutionX, int resolutionY) {
+        int words = (resolutionX + 63) >>> 6;
+        int end = words * resolutionY;
+        Arrays.fill(bitmap, 0, end, 0);
+        pixels = 0;
 
-        for (int y = 0; y < unpackedImage.size(); y++) {
-            BitSet currentRow = unpackedImage.get(y);
-            if (currentRow != null) {
-                int x = 0;
-                while ((x = currentRow.nextSetBit(x)) >= 0) {
-                    photonLayer.supported(x, y);
-                    ++x;
+        int x = 0;
+        int offset = 0;
+        for (int i = 0; i < dataSize && offset < end; i++) {
+            byte rle = imageData.get(i);
+            int length = rle & 0x7F;
+            boolean color = (rle & 0x80) == 0x80;
+            if (color) {
+                pixels += length;
+            }
+            // a run can continue on the next row
+            while (length > 0 && offset < end) {
+                int lineLength = Integer.min(length, resolutionX - x);
+                if (color) {
+                    PhotonBitLayer.setRange(bitmap, offset, x, x + lineLength);
+                }
+                x += lineLength;
+                length -= lineLength;
+                if (x == resolutionX) {
+                    x = 0;
+                    offset += words;
                 }
             }
         }
     }
 
-    private void calculate(ArrayList<BitSet> unpackedImage, ArrayList<BitSet> previousUnpackedImage, PhotonLayer photonLayer) {
+    private void calculate(long[] bitmap, long[] previousBitmap, PhotonBitLayer bitLayer) {
         islandRows = new ArrayList<>();
+        islandIndex = null;
         isLandsCount = 0;
 
-        photonLayer.clear();
+        bitLayer.setLayer(bitmap, previousBitmap);
+        bitLayer.reduce();
 
-        for (int y = 0; y < unpackedImage.size(); y++) {
-            BitSet currentRow = unpackedImage.get(y);
-            BitSet prevRow = previousUnpackedImage != null ? previousUnpackedImage.get(y) : null;
-            if (currentRow != null) {
-                int x = 0;
-                while ((x = currentRow.nextSetBit(x)) >= 0) {
-                    if (prevRow == null || prevRow.get(x)) {
-                        photonLayer.supported(x, y);
-                    } else {
-                        photonLayer.island(x, y);
-                    }
-                    ++x;
-                }
-            }
-        }
-
-        photonLayer.reduce();
-
-        isLandsCount = photonLayer.setIslands(islandRows);
+        isLandsCount = bitLayer.setIslands(islandRows);
     }
 
     public static List<PhotonFileLayer> readLayers(PhotonFileHeader photonFileHeader, final PrusaSL1FileLayer[] sl1Layers, final int margin, final IPhotonProgress iPhotonProgress, final DepthBuffer depthBuffer) throws Exception {
-        // read layers
-        //final long[] pcheck = new long[256];
-        final List<Callable<PhotonFileLayer>> callables = new ArrayList<>();
+        // A worker per core takes the next layer when it is done with the last one, so only one image per worker is
+        // decoded at a time, and a zip entry is not read before a worker is ready for it.
+        final PhotonFileLayer[] photonLayers = new PhotonFileLayer[sl1Layers.length];
+        final AtomicInteger nextLayer = new AtomicInteger();
         final AtomicInteger layerDisplay = new AtomicInteger();
-        for(final PrusaSL1FileLayer layer : sl1Layers) {
-            callables.add( () -> {
-                iPhotonProgress.showInfo("Reading Prusa SL1 file layer " + layerDisplay.incrementAndGet() + "/" + photonFileHeader.getNumberOfLayers());
-
-                // read image
-                final BufferedImage image = layer.getImage();
-                final int width = image.getWidth();
-                final int height = image.getHeight();
-
-                if (width != photonFileHeader.getResolutionX() || height != photonFileHeader.getResolutionY())
-                    throw new IllegalArgumentException("Wrong image size: found " + width + "x" + height + ", expected " + photonFileHeader.getResolutionX() + "x" + photonFileHeader.getResolutionY());
-
-                // get raw image data
-                final byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-                if (width * height != pixels.length)
-                    throw new IllegalArgumentException("Wrong number of pixels: found " + pixels.length + ", expected " + width * height + " (" + width + "x" + height + ")");
-
-                // calculate layer image data
-                // see also https://github.com/fookatchu/pyphotonfile/blob/master/pyphotonfile/photonfile.py
-                // Encoding scheme:
-                //     Highest bit of each byte is color (black or white)
-                //     Lowest 7 bits of each byte is repetition of that color, with max of 125 / 0x7D
+        final List<Callable<Integer>> callables = new ArrayList<>();
+        int workers = Integer.min(sl1Layers.length, Runtime.getRuntime().availableProcessors());
+        for (int w = 0; w < workers; w++) {
+            callables.add(() -> {
+                final PngLayerTranscoder transcoder = new PngLayerTranscoder();
                 final ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-                // we need to process png bytes from last to first OR perform 180 degree rotation on input image
-                byte color = pixels[pixels.length - 1];
-                byte count = 0;
-                //for(int y = 0; y < height; y++) {
-                for (int y = height - 1; y >= 0; y--) {
-                    int depth = DepthBuffer.EMPTY;
-
-                    //for(int x = 0; x < width; x++) {
-                    for (int x = width - 1; x >= 0; x--) {
-                        final int inPos = width * y + x;
-                        final byte pixel = pixels[inPos];
-                        //pcheck[ ((int)pixel) & 0xFF ]++;
-
-                        // depth to front plane
-                        //if(DepthBuffer.EMPTY == depth && (0 != (color & 0b10000000)))
-                        //    depth = x;
-
-                        // depth to back plane
-                        if (0 != (color & 0b10000000))
-                            depth = x;
-
-                        if (pixel == color) {
-                            if (count < 125) {
-                                count++;
-                                continue;
-                            }
-                        }
-                        final byte outByte = (byte) ((color & 0b10000000) | (count & 0b01111111));
-                        color = pixel;
-                        count = 1;
-
-                        out.write(outByte);
-                    }
-
-                    // depth to front plane
-                    // depthBuffer.setDepth(layerNum, y, depth);
-
-                    // depth to back plane
-                    depthBuffer.setDepth(layer.getIndex(), y, DepthBuffer.EMPTY == depth ? DepthBuffer.EMPTY : (width - 1) - depth);
+                int count = 0;
+                for (int i = nextLayer.getAndIncrement(); i < sl1Layers.length; i = nextLayer.getAndIncrement()) {
+                    iPhotonProgress.showInfo("Reading Prusa SL1 file layer " + layerDisplay.incrementAndGet() + "/" + photonFileHeader.getNumberOfLayers());
+                    photonLayers[i] = readLayer(photonFileHeader, sl1Layers[i], depthBuffer, transcoder, out);
+                    count++;
                 }
-
-                return new PhotonFileLayer(photonFileHeader, layer.getIndex(), out.toByteArray());
+                return count;
             });
         }
 
-        final List<PhotonFileLayer> layers = new ArrayList<>();
         final ExecutorService executor = Executors.newWorkStealingPool();
+        try {
+            for (Future<Integer> future : executor.invokeAll(callables)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
 
-        executor.invokeAll(callables)
-            .stream()
-            .map(future -> {
-                try {
-                    return future.get();
-                }
-                catch (final Exception e) {
-                    throw new IllegalStateException(e);
-                }
-            })
-            .forEach(layers::add);
+        final List<PhotonFileLayer> layers = new ArrayList<>(Arrays.asList(photonLayers));
 
-        executor.shutdown();
+        // TODO: read antialias layers
+
+        System.gc();
 
-        /*
-        System.out.println("-------- COLOR DISTRIBUTION -----");
-        for(int i = 0; i < pcheck.length; i++) {
-            System.out.println(i + " = " + pcheck[i]);
+        return layers;
+    }
+
+    private static PhotonFileLayer readLayer(PhotonFileHeader photonFileHeader, final PrusaSL1FileLayer layer, final DepthBuffer depthBuffer, final PngLayerTranscoder transcoder, final ByteArrayOutputStream out) throws Exception {
+        // grayscale images are transcoded row by row, other images are read as a whole
+        try (InputStream in = layer.getInputStream()) {
+            byte[] imageData = transcoder.transcode(in, layer.getIndex(), photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY(), depthBuffer);
+            if (imageData != null) {
+                return new PhotonFileLayer(photonFileHeader, layer.getIndex(), PhotonFileBuffer.wrap(imageData));
+            }
         }
-        System.out.println("---------------------------------");
-         */
 
-       // TODO: read antialias layers
+        // read image
+        final BufferedImage image = layer.getImage();
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+
+        if (width != photonFileHeader.getResolutionX() || height != photonFileHeader.getResolutionY())
+            throw new IllegalArgumentException("Wrong image size: found " + width + "x" + height + ", expected " + photonFileHeader.getResolutionX() + "x" + photonFileHeader.getResolutionY());
+
+        // get raw image data
+        final byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        if (width * height != pixels.length)
+            throw new IllegalArgumentException("Wrong number of pixels: found " + pixels.length + ", expected " + width * height + " (" + width + "x" + height + ")");
+
+        // calculate layer image data
+        // see also https://github.com/fookatchu/pyphotonfile/blob/master/pyphotonfile/photonfile.py
+        // Encoding scheme:
+        //     Highest bit of each byte is color (black or white)
+        //     Lowest 7 bits of each byte is repetition of that color, with max of 125 / 0x7D
+        out.reset();
+
+        // we need to process png bytes from last to first OR perform 180 degree rotation on input image
+        byte color = pixels[pixels.length - 1];
+        byte count = 0;
+        //for(int y = 0; y < height; y++) {
+        for (int y = height - 1; y >= 0; y--) {
+            int depth = DepthBuffer.EMPTY;
+
+            //for(int x = 0; x < width; x++) {
+            for (int x = width - 1; x >= 0; x--) {
+                final int inPos = width * y + x;
+                final byte pixel = pixels[inPos];
+                //pcheck[ ((int)pixel) & 0xFF ]++;
+
+                // depth to front plane
+                //if(DepthBuffer.EMPTY == depth && (0 != (color & 0b10000000)))
+                //    depth = x;
+
+                // depth to back plane
+                if (0 != (color & 0b10000000))
+                    depth = x;
+
+                if (pixel == color) {
+                    if (count < 125) {
+                        count++;
+                        continue;
+                    }
+                }
+                final byte outByte = (byte) ((color & 0b10000000) | (count & 0b01111111));
+                color = pixel;
+                count = 1;
 
-        System.gc();
+                out.write(outByte);
+            }
 
-        return layers;
+            // depth to front plane
+            // depthBuffer.setDepth(layerNum, y, depth);
+
+            // depth to back plane
+            depthBuffer.setDepth(layer.getIndex(), y, DepthBuffer.EMPTY == depth ? DepthBuffer.EMPTY : (width - 1) - depth);
+        }
+
+        return new PhotonFileLayer(photonFileHeader, layer.getIndex(), PhotonFileBuffer.wrap(out.toByteArray()));
     }
 
-    public static List<PhotonFileLayer> readLayers(PhotonFileHeader photonFileHeader, byte[] file, int margin, IPhotonProgress iPhotonProgress) throws Exception {
+    public static List<PhotonFileLayer> readLayers(PhotonFileHeader photonFileHeader, ByteBuffer file, int margin, IPhotonProgress iPhotonProgress) throws Exception {
         PhotonLayer photonLayer = new PhotonLayer(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
 
         List<PhotonFileLayer> layers = new ArrayList<>();
@@ -351,7 +380,7 @@ public class PhotonFileLayer {
 
         int layerCount = photonFileHeader.getNumberOfLayers();
 
-        try (PhotonInputStream ds = new PhotonInputStream(new ByteArrayInputStream(file, photonFileHeader.getLayersDefinitionOffsetAddress(), file.length))) {
+        try (PhotonInputStream ds = new PhotonInputStream(PhotonFileBuffer.inputStream(file, photonFileHeader.getLayersDefinitionOffsetAddress()))) {
             Hashtable<Integer, PhotonFileLayer> layerMap = new Hashtable<>();
             for (int i = 0; i < layerCount; i++) {
 
@@ -359,7 +388,7 @@ public class PhotonFileLayer {
 
                 PhotonFileLayer layer = new PhotonFileLayer(ds);
                 layer.photonFileHeader = photonFileHeader;
-                layer.imageData = Arrays.copyOfRange(file, layer.dataAddress, layer.dataAddress + layer.dataSize);
+                layer.imageData = PhotonFileBuffer.slice(file, layer.dataAddress, layer.dataSize);
                 layers.add(layer);
                 layerMap.put(i, layer);
             }
@@ -371,7 +400,7 @@ public class PhotonFileLayer {
 
                         PhotonFileLayer layer = new PhotonFileLayer(ds);
                         layer.photonFileHeader = photonFileHeader;
-                        layer.imageData = Arrays.copyOfRange(file, layer.dataAddress, layer.dataAddress + layer.dataSize);
+                        layer.imageData = PhotonFileBuffer.slice(file, layer.dataAddress, layer.dataSize);
 
                         layerMap.get(i).addAntiAliasLayer(layer);
 
@@ -390,134 +419,201 @@ public class PhotonFileLayer {
         antiAliasLayers.add(layer);
     }
 
-    public static void calculateAALayers(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers, PhotonAaMatrix photonAaMatrix, IPhotonProgress iPhotonProgress) throws Exception {
-        PhotonLayer photonLayer = new PhotonLayer(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
-        int[][] source = new int[photonFileHeader.getResolutionY()][photonFileHeader.getResolutionX()];
+    public static void calculateAALayers(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers, PhotonAaMatrix photonAaMatrix, IPhotonProgress iPhotonProgress, PhotonFileMetrics metrics) throws Exception {
+        // Every layer is filtered on its own, so the layers are handed out to a worker per core. Each worker
+        // allocates its buffers once, and takes the next layer when it is done, as the layers differ in cost.
+        final AtomicInteger nextLayer = new AtomicInteger();
+        final AtomicInteger layerDisplay = new AtomicInteger();
+        final List<Callable<Integer>> callables = new ArrayList<>();
+        int workers = Integer.min(layers.size(), Runtime.getRuntime().availableProcessors());
+        for (int w = 0; w < workers; w++) {
+            callables.add(() -> calculateAALayers(photonFileHeader, layers, photonAaMatrix, iPhotonProgress, metrics, nextLayer, layerDisplay));
+        }
 
-        int i = 0;
-        for (PhotonFileLayer layer : layers) {
-            ArrayList<BitSet> unpackedImage = layer.unpackImage(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
+        final ExecutorService executor = Executors.newWorkStealingPool();
+        try {
+            for (Future<Integer> future : executor.invokeAll(callables)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        System.gc();
+    }
 
-            iPhotonProgress.showInfo("Calculating AA for photon file layer " + i + "/" + photonFileHeader.getNumberOfLayers());
+    private static int calculateAALayers(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers, PhotonAaMatrix photonAaMatrix, IPhotonProgress iPhotonProgress, PhotonFileMetrics metrics, AtomicInteger nextLayer, AtomicInteger layerDisplay) throws Exception {
+        int words = (photonFileHeader.getResolutionX() + 63) >>> 6;
+        long[] bitmap = new long[words * photonFileHeader.getResolutionY()];
+        int[] thresholds = new int[0];
+        long[][] levels = new long[0][];
 
+        int count = 0;
+        for (int i = nextLayer.getAndIncrement(); i < layers.size(); i = nextLayer.getAndIncrement()) {
+            PhotonFileLayer layer = layers.get(i);
+            long startNanos = System.nanoTime();
+            long startAllocatedBytes = PhotonFileMetrics.getThreadAllocatedBytes();
+            layer.unpackImage(bitmap, photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
 
-            for (int y = 0; y < photonFileHeader.getResolutionY(); y++) {
-                for (int x = 0; x < photonFileHeader.getResolutionX(); x++) {
-                    source[y][x] = 0;
-                }
-            }
+            iPhotonProgress.showInfo("Calculating AA for photon file layer " + layerDisplay.incrementAndGet() + "/" + photonFileHeader.getNumberOfLayers());
 
-            for (int y = 0; y < unpackedImage.size(); y++) {
-                BitSet currentRow = unpackedImage.get(y);
-                if (currentRow != null) {
-                    for (int x = 0; x < currentRow.length(); x++) {
-                        if (currentRow.get(x)) {
-                            source[y][x] = 255;
-                        }
-                    }
+            if (levels.length != layer.antiAliasLayers.size()) {
+                int aaTresholdDiff = 255 / photonFileHeader.getAntiAliasingLevel();
+                thresholds = new int[layer.antiAliasLayers.size()];
+                levels = new long[thresholds.length][bitmap.length];
+                for (int a = 0; a < thresholds.length; a++) {
+                    thresholds[a] = (a + 1) * aaTresholdDiff;
                 }
             }
 
             // Calc
-            int[][] target = photonAaMatrix.calc(source);
-
-            int aaTresholdDiff = 255 / photonFileHeader.getAntiAliasingLevel();
-            int aaTreshold = 0;
-            for (PhotonFileLayer aaFileLayer : layer.antiAliasLayers) {
-                photonLayer.clear();
-                aaTreshold += aaTresholdDiff;
-
-                for (int y = 0; y < photonFileHeader.getResolutionY(); y++) {
-                    for (int x = 0; x < photonFileHeader.getResolutionX(); x++) {
-                        if (target[y][x] >= aaTreshold) {
-                            photonLayer.supported(x, y);
-                        }
-                    }
-                }
+            photonAaMatrix.calc(bitmap, photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY(), thresholds, levels);
 
-                aaFileLayer.saveLayer(photonLayer);
+            for (int a = 0; a < levels.length; a++) {
+                layer.antiAliasLayers.get(a).saveLayer(levels[a], photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
             }
+            metrics.addLayer(i, startNanos, startAllocatedBytes, layer.dataSize, layer.pixels, 0);
+            count++;
+        }
+        return count;
+    }
 
-            i++;
+    public static List<PhotonIslandBody> calculateLayers(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers, int margin, IPhotonProgress iPhotonProgress, PhotonFileMetrics metrics) throws Exception {
+        // A layer only depends on the image of the layer below, so the layers are split into chunks
+        // that are calculated in parallel, each chunk starts by unpacking the layer below it.
+        // The islands are tracked through the layers in order, as the chunks complete.
+        int layerCount = layers.size();
+        int chunkSize = Integer.max(MIN_CHUNK_SIZE, (layerCount + CHUNKS_PER_CORE * Runtime.getRuntime().availableProcessors() - 1) / (CHUNKS_PER_CORE * Runtime.getRuntime().availableProcessors()));
+
+        final List<Callable<Integer>> callables = new ArrayList<>();
+        final AtomicInteger layerDisplay = new AtomicInteger();
+        for (int start = 0; start < layerCount; start += chunkSize) {
+            final int from = start;
+            final int to = Integer.min(start + chunkSize, layerCount);
+            callables.add(() -> {
+                calculateLayers(photonFileHeader, layers, margin, from, to, iPhotonProgress, layerDisplay, metrics);
+                return to - from;
+            });
         }
-        photonLayer.unLink();
-        System.gc();
 
+        PhotonIslandTracker islandTracker = new PhotonIslandTracker(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
+        final ExecutorService executor = Executors.newWorkStealingPool();
+        try {
+            final List<Future<Integer>> futures = new ArrayList<>();
+            for (Callable<Integer> callable : callables) {
+                futures.add(executor.submit(callable));
+            }
+            int layerNo = 0;
+            for (Future<Integer> future : futures) {
+                int to = layerNo + future.get();
+                for (; layerNo < to; layerNo++) {
+                    islandTracker.add(layers.get(layerNo).packedLayerImage);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        System.gc();
+        return islandTracker.getIslandBodies();
     }
 
-    public static void calculateLayers(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers, int margin, IPhotonProgress iPhotonProgress) throws Exception {
-        PhotonLayer photonLayer = new PhotonLayer(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
-        ArrayList<BitSet> previousUnpackedImage = null;
-        int i = 0;
+    /**
+     * Track the islands through the calculated layers again, after some of the layers have been recalculated.
+     * The bodies can reach over any number of layers, so all the layers are tracked from the first.
+     */
+    public static List<PhotonIslandBody> trackIslandBodies(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers) {
+        PhotonIslandTracker islandTracker = new PhotonIslandTracker(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
         for (PhotonFileLayer layer : layers) {
-            ArrayList<BitSet> unpackedImage = layer.unpackImage(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
+            islandTracker.add(layer.packedLayerImage);
+        }
+        return islandTracker.getIslandBodies();
+    }
 
-            iPhotonProgress.showInfo("Calculating photon file layer " + i + "/" + photonFileHeader.getNumberOfLayers());
+    private static void calculateLayers(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers, int margin, int from, int to, IPhotonProgress iPhotonProgress, AtomicInteger layerDisplay, PhotonFileMetrics metrics) {
+        PhotonBitLayer bitLayer = new PhotonBitLayer(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
+        long[] bitmap = bitLayer.newBitmap();
+        long[] previousBitmap = null;
 
-            if (margin > 0) {
-                layer.extendsMargin = layer.checkMargin(unpackedImage, margin);
-            }
+        if (from > 0) {
+            previousBitmap = bitLayer.newBitmap();
+            layers.get(from - 1).unpackImage(previousBitmap, photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
+        }
 
-            layer.unknownPixels(unpackedImage, photonLayer);
+        for (int i = from; i < to; i++) {
+            PhotonFileLayer layer = layers.get(i);
 
-            layer.calculate(unpackedImage, previousUnpackedImage, photonLayer);
+            iPhotonProgress.showInfo("Calculating photon file layer " + layerDisplay.incrementAndGet() + "/" + photonFileHeader.getNumberOfLayers());
 
-            if (previousUnpackedImage != null) {
-                previousUnpackedImage.clear();
-            }
-            previousUnpackedImage = unpackedImage;
+            long startNanos = System.nanoTime();
+            long startAllocatedBytes = PhotonFileMetrics.getThreadAllocatedBytes();
+            layer.calculate(bitmap, previousBitmap, margin, bitLayer);
+            metrics.addLayer(i, startNanos, startAllocatedBytes, layer.dataSize, layer.pixels, layer.isLandsCount);
 
-            layer.packedLayerImage = photonLayer.packLayerImage();
-            layer.isCalculated = true;
+            // this layer is the layer below the next one
+            long[] swap = previousBitmap != null ? previousBitmap : bitLayer.newBitmap();
+            previousBitmap = bitmap;
+            bitmap = swap;
 
             if (photonFileHeader.getVersion() > 1) {
                 for (PhotonFileLayer aaFileLayer : layer.antiAliasLayers) {
-                    ArrayList<BitSet> aaUnpackedImage = aaFileLayer.unpackImage(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
-                    PhotonLayer aaPhotonLayer = new PhotonLayer(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
-                    aaFileLayer.unknownPixels(aaUnpackedImage, aaPhotonLayer);
-                    aaFileLayer.packedLayerImage = aaPhotonLayer.packLayerImage();
+                    // AA layers are not calculated, all pixels are shown as supported
+                    aaFileLayer.unpackImage(bitmap, photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
+                    bitLayer.setLayer(bitmap, null);
+                    aaFileLayer.packedLayerImage = bitLayer.packLayerImage();
                     aaFileLayer.isCalculated = false;
                 }
             }
-
-            i++;
         }
-        photonLayer.unLink();
-        System.gc();
+        bitLayer.unLink();
     }
 
-    public static void calculateLayers(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers, int margin, int layerNo) throws Exception {
-        PhotonLayer photonLayer = new PhotonLayer(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
-        ArrayList<BitSet> previousUnpackedImage = null;
-
-        if (layerNo > 0) {
-            previousUnpackedImage = layers.get(layerNo - 1).unpackImage(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
+    /**
+     * Calculate the layer on top of the layer below. The image of the layer is decoded into the bitmap, and the
+     * bitmap of the layer below is null for the first layer.
+     */
+    public void calculate(long[] bitmap, long[] previousBitmap, int margin, PhotonBitLayer bitLayer) {
+        unpackImage(bitmap, photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
+        if (margin > 0) {
+            extendsMargin = checkMargin(bitmap, margin);
         }
+        calculate(bitmap, previousBitmap, bitLayer);
+        packedLayerImage = bitLayer.packLayerImage();
+        isCalculated = true;
+    }
 
-        for (int i = 0; i < 2; i++) {
-            PhotonFileLayer layer = layers.get(layerNo + i);
-            ArrayList<BitSet> unpackedImage = layer.unpackImage(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
-
-            if (margin > 0) {
-                layer.extendsMargin = layer.checkMargin(unpackedImage, margin);
-            }
-
-            layer.unknownPixels(unpackedImage, photonLayer);
+    public static void calculateLayers(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers, int margin, int layerNo, PhotonFileMetrics metrics) throws Exception {
+        BitSet changedLayers = new BitSet();
+        changedLayers.set(layerNo);
+        calculateLayers(photonFileHeader, layers, margin, changedLayers, metrics);
+        System.gc();
+    }
 
-            layer.calculate(unpackedImage, previousUnpackedImage, photonLayer);
+    /**
+     * Recalculate a set of layers in one pass, the image of the layer below is only unpacked when it is not the
+     * previous layer calculated.
+     */
+    public static void calculateLayers(PhotonFileHeader photonFileHeader, List<PhotonFileLayer> layers, int margin, BitSet changedLayers, PhotonFileMetrics metrics) throws Exception {
+        PhotonBitLayer bitLayer = new PhotonBitLayer(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
+        long[] bitmap = bitLayer.newBitmap();
+        long[] previousBitmap = bitLayer.newBitmap();
+        int previousLayerNo = -1;
 
-            if (previousUnpackedImage != null) {
-                previousUnpackedImage.clear();
+        for (int i = changedLayers.nextSetBit(0); i >= 0 && i < layers.size(); i = changedLayers.nextSetBit(i + 1)) {
+            if (i > 0 && i != previousLayerNo + 1) {
+                layers.get(i - 1).unpackImage(previousBitmap, photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
             }
-            previousUnpackedImage = unpackedImage;
 
-            layer.packedLayerImage = photonLayer.packLayerImage();
-            layer.isCalculated = true;
+            PhotonFileLayer layer = layers.get(i);
+            long startNanos = System.nanoTime();
+            long startAllocatedBytes = PhotonFileMetrics.getThreadAllocatedBytes();
+            layer.calculate(bitmap, i > 0 ? previousBitmap : null, margin, bitLayer);
+            metrics.addLayer(i, startNanos, startAllocatedBytes, layer.dataSize, layer.pixels, layer.isLandsCount);
 
-            i++;
+            long[] swap = previousBitmap;
+            previousBitmap = bitmap;
+            bitmap = swap;
+            previousLayerNo = i;
         }
-        photonLayer.unLink();
-        System.gc();
+        bitLayer.unLink();
     }
 
     public ArrayList<PhotonRow> getRows() {
@@ -528,10 +624,40 @@ public class PhotonFileLayer {
         return islandRows;
     }
 
+    /**
+     * Get the distinct islands of the layer, the index is built on first use from the island rows.
+     * A layer without island rows, like a layer that is not calculated, gets an empty index.
+     */
+    public PhotonIslandIndex getIslandIndex() {
+        if (islandRows == null) {
+            return NO_ISLANDS;
+        }
+        if (islandIndex == null) {
+            islandIndex = new PhotonIslandIndex(islandRows);
+        }
+        return islandIndex;
+    }
+
     public int getIsLandsCount() {
         return isLandsCount;
     }
 
+    public int getDataAddress() {
+        return dataAddress;
+    }
+
+    public int getDataSize() {
+        return dataSize;
+    }
+
+    public void setImageData(ByteBuffer imageData) {
+        this.imageData = imageData;
+    }
+
+    public byte[] getPackedLayerImage() {
+        return packedLayerImage;
+    }
+
     public long getPixels() {
         return pixels;
     }
@@ -566,36 +692,53 @@ public class PhotonFileLayer {
         if (islandRows != null) {
             islandRows.clear();
         }
+        islandIndex = null;
         photonFileHeader = null;
     }
 
+    /**
+     * Copy the layer data to the heap, so it no longer depends on a memory mapped file.
+     */
+    public void copyImageData() {
+        if (imageData != null && imageData.isDirect()) {
+            imageData = PhotonFileBuffer.copy(imageData);
+        }
+        for (PhotonFileLayer aaFileLayer : antiAliasLayers) {
+            aaFileLayer.copyImageData();
+        }
+    }
+
     public boolean doExtendMargin() {
         return extendsMargin;
     }
 
-    private boolean checkMargin(ArrayList<BitSet> unpackedImage, int margin) {
-        if (unpackedImage.size() > margin) {
+    private boolean checkMargin(long[] bitmap, int margin) {
+        int width = photonFileHeader.getResolutionX();
+        int height = photonFileHeader.getResolutionY();
+        int words = (width + 63) >>> 6;
+        // the rows are counted as in the unpacked image, which ends with an empty row
+        int rows = height + 1;
+        if (rows > margin) {
             // check top margin rows
             for (int i = 0; i < margin; i++) {
-                if (!unpackedImage.get(i).isEmpty()) {
+                if (nextSetBit(bitmap, i * words, words, 0) >= 0) {
                     return true;
                 }
             }
             // check bottom margin rows
-            for (int i = unpackedImage.size() - margin; i < unpackedImage.size(); i++) {
-                if (!unpackedImage.get(i).isEmpty()) {
+            for (int i = rows - margin; i < height; i++) {
+                if (nextSetBit(bitmap, i * words, words, 0) >= 0) {
                     return true;
                 }
             }
 
-            for (int i = margin; i < unpackedImage.size() - margin; i++) {
-                BitSet row = unpackedImage.get(i);
-                int nextBit = row.nextSetBit(0);
+            for (int i = margin; i < rows - margin && i < height; i++) {
+                int nextBit = nextSetBit(bitmap, i * words, words, 0);
                 if (nextBit >= 0 && nextBit < margin) {
                     return true;
                 }
-                nextBit = row.nextSetBit(photonFileHeader.getResolutionX() - margin);
-                if (nextBit > photonFileHeader.getResolutionX() - margin) {
+                nextBit = nextSetBit(bitmap, i * words, words, width - margin);
+                if (nextBit > width - margin) {
                     return true;
                 }
             }
@@ -604,6 +747,23 @@ public class PhotonFileLayer {
         return false;
     }
 
+    private static int nextSetBit(long[] bitmap, int offset, int words, int from) {
+        int w = from >>> 6;
+        if (w >= words) {
+            return -1;
+        }
+        long word = bitmap[offset + w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == words) {
+                return -1;
+            }
+            word = bitmap[offset + w];
+        }
+    }
+
     public PhotonLayer getLayer() {
         PhotonLayer photonLayer = new PhotonLayer(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
         photonLayer.unpackLayerImage(packedLayerImage);
@@ -616,17 +776,72 @@ public class PhotonFileLayer {
 
     public void updateLayerIslands(PhotonLayer photonLayer) {
         islandRows = new ArrayList<>();
+        islandIndex = null;
         isLandsCount = photonLayer.setIslands(islandRows);
     }
 
     public void saveLayer(PhotonLayer photonLayer) throws Exception {
         this.packedLayerImage = photonLayer.packLayerImage();
-        this.imageData = photonLayer.packImageData();
-        this.dataSize = imageData.length;
+        this.imageData = PhotonFileBuffer.wrap(photonLayer.packImageData());
+        this.dataSize = imageData.limit();
         islandRows = new ArrayList<>();
+        islandIndex = null;
         isLandsCount = photonLayer.setIslands(islandRows);
     }
 
+    /**
+     * Store an anti aliasing layer from a bitmap, where all set pixels are supported. The runs of each row are found
+     * a word at a time, and are written to the layer image and the photon RLE data in the same pass.
+     */
+    public void saveLayer(long[] bitmap, int resolutionX, int resolutionY) {
+        PhotonLayerBuffers buffers = PhotonLayerBuffers.get();
+        byte[] layerImage = buffers.growScratchPad(2 * resolutionX);
+        byte[] data = buffers.growDataPad(resolutionX);
+        int words = (resolutionX + 63) >>> 6;
+        int imagePtr = 0;
+        int dataPtr = 0;
+        for (int y = 0; y < resolutionY; y++) {
+            // a run takes at most 2 bytes in the layer image and one byte per pixel in the data
+            if (imagePtr + 2 * resolutionX > layerImage.length) {
+                layerImage = buffers.growScratchPad(imagePtr + 2 * resolutionX);
+            }
+            if (dataPtr + resolutionX > data.length) {
+                data = buffers.growDataPad(dataPtr + resolutionX);
+            }
+            int offset = y * words;
+            int x = 0;
+            while (x < resolutionX) {
+                boolean on = ((bitmap[offset + (x >>> 6)] >>> x) & 1) != 0;
+                int end = runEnd(bitmap, offset, words, resolutionX, x, on);
+                imagePtr = PhotonLayer.add(layerImage, imagePtr, on ? PhotonLayer.SUPPORTED : PhotonLayer.OFF, end - x);
+                dataPtr = PhotonLayer.addPhotonRLE(data, dataPtr, !on, end - x);
+                x = end;
+            }
+        }
+        this.packedLayerImage = Arrays.copyOf(layerImage, imagePtr);
+        this.imageData = PhotonFileBuffer.wrap(Arrays.copyOf(data, dataPtr));
+        this.dataSize = dataPtr;
+        islandRows = new ArrayList<>();
+        islandIndex = null;
+        isLandsCount = 0;
+    }
+
+    /**
+     * Find the end of the run of pixels with the given state in a bitmap row.
+     */
+    private static int runEnd(long[] bitmap, int offset, int words, int width, int x, boolean on) {
+        long state = on ? -1L : 0L;
+        int w = x >>> 6;
+        long diff = (bitmap[offset + w] ^ state) & (-1L << x);
+        while (diff == 0) {
+            if (++w == words) {
+                return width;
+            }
+            diff = bitmap[offset + w] ^ state;
+        }
+        return Integer.min(width, (w << 6) + Long.numberOfTrailingZeros(diff));
+    }
+
     public ArrayList<BitSet> getUnknownRows() {
         return unpackImage(photonFileHeader.getResolutionX(), photonFileHeader.getResolutionY());
     }
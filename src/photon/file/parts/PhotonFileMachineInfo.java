@@ -25,7 +25,7 @@
 package photon.file.parts;
 
 import java.io.ByteArrayInputStream;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * by bn on 01/07/2018.
@@ -41,12 +41,12 @@ public class PhotonFileMachineInfo {
     
     private int infoByteSize;
 
-    public PhotonFileMachineInfo(int address, int byteSize, byte[] file) throws Exception {
+    public PhotonFileMachineInfo(int address, int byteSize, ByteBuffer file) throws Exception {
     	
     	this.infoByteSize = byteSize;
     	
     	if (byteSize > 0) {
-	        byte[] data = Arrays.copyOfRange(file, address, address + byteSize);
+	        byte[] data = PhotonFileBuffer.copyOfRange(file, address, address + byteSize);
 	        
 	        try (PhotonInputStream ds = new PhotonInputStream(new ByteArrayInputStream(data))) {
 	        	u1 = ds.readInt();
@@ -73,7 +73,7 @@ public class PhotonFileMachineInfo {
 	        	
 	        }
 	
-	        machineName = Arrays.copyOfRange(file, machineNameAddress, machineNameAddress + machineNameSize);
+	        machineName = PhotonFileBuffer.copyOfRange(file, machineNameAddress, machineNameAddress + machineNameSize);
     	}
     }
 
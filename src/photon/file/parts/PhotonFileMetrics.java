@@ -0,0 +1,282 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file.parts;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the timings of the phases run on a photon file, and the time, bytes, pixels and islands of every layer.
+ * <p/>
+ * A phase started while another phase is running is counted as part of the running phase, so fixing all layers is
+ * one phase including the recalculations it does. The layers are recorded from the calculation threads, the phases
+ * are started and ended from the thread running them.
+ */
+public class PhotonFileMetrics implements PhotonFileMetricsMXBean {
+    private static final int SLOWEST_LAYERS = 5;
+    private static final int MAX_PHASES = 64;
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private volatile String phase = "";
+    private int depth;
+    private volatile long phaseStart;
+    private volatile int layerCount;
+    private long[] layerNanos = new long[0];
+
+    private final AtomicInteger layersDone = new AtomicInteger();
+    private final AtomicLong bytesDecoded = new AtomicLong();
+    private final AtomicLong pixels = new AtomicLong();
+    private final AtomicLong islands = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private final List<PhotonPhaseMetrics> phases = new ArrayList<>();
+    private ObjectName objectName;
+
+    /**
+     * Set the number of layers in the file, the time of each layer is recorded up to this layer count. A running
+     * phase started before the layer count was known, like reading the file, processes all layers.
+     */
+    public void setFileLayerCount(int fileLayerCount) {
+        layerNanos = new long[fileLayerCount];
+        if (layerCount == 0) {
+            layerCount = fileLayerCount;
+        }
+    }
+
+    /**
+     * Start a phase processing a number of layers.
+     */
+    public void startPhase(String name, int layerCount) {
+        if (depth++ > 0) {
+            return;
+        }
+        this.layerCount = layerCount;
+        Arrays.fill(layerNanos, 0);
+        layersDone.set(0);
+        bytesDecoded.set(0);
+        pixels.set(0);
+        islands.set(0);
+        allocatedBytes.set(isAllocationCounted() ? 0 : -1);
+        phaseStart = System.nanoTime();
+        phase = name;
+    }
+
+    /**
+     * End the running phase, the bytes are added to the bytes decoded by the layers, like the size of the file read.
+     */
+    public void endPhase(long bytes) {
+        bytesDecoded.addAndGet(bytes);
+        if (--depth > 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - phaseStart;
+
+        int count = Integer.min(SLOWEST_LAYERS, layerNanos.length);
+        int[] slowestLayers = new int[count];
+        long[] slowestNanos = new long[count];
+        int found = 0;
+        for (int layerNo = 0; layerNo < layerNanos.length; layerNo++) {
+            long layerTime = layerNanos[layerNo];
+            if (layerTime == 0 || (found == count && layerTime <= slowestNanos[count - 1])) {
+                continue;
+            }
+            int i = found < count ? found++ : count - 1;
+            while (i > 0 && slowestNanos[i - 1] < layerTime) {
+                slowestLayers[i] = slowestLayers[i - 1];
+                slowestNanos[i] = slowestNanos[i - 1];
+                i--;
+            }
+            slowestLayers[i] = layerNo;
+            slowestNanos[i] = layerTime;
+        }
+        double[] slowestLayerMillis = new double[found];
+        for (int i = 0; i < found; i++) {
+            slowestLayerMillis[i] = slowestNanos[i] / 1e6;
+        }
+
+        int layers = layersDone.get() > 0 ? layersDone.get() : layerCount;
+        PhotonPhaseMetrics phaseMetrics = new PhotonPhaseMetrics(phase, layers, nanos, bytesDecoded.get(), pixels.get(), islands.get(),
+                allocatedBytes.get(), Arrays.copyOf(slowestLayers, found), slowestLayerMillis);
+        synchronized (phases) {
+            if (phases.size() == MAX_PHASES) {
+                phases.remove(0);
+            }
+            phases.add(phaseMetrics);
+        }
+        phase = "";
+    }
+
+    public void endPhase() {
+        endPhase(0);
+    }
+
+    /**
+     * Get the allocation counter of the current thread, to pass to addLayer when the layer is done.
+     */
+    public static long getThreadAllocatedBytes() {
+        if (isAllocationCounted()) {
+            return ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Record a layer done by the current thread, started at the nano time and allocation counter given.
+     */
+    public void addLayer(int layerNo, long startNanos, long startAllocatedBytes, long bytes, long layerPixels, int layerIslands) {
+        long nanos = System.nanoTime() - startNanos;
+        if (layerNo < layerNanos.length) {
+            layerNanos[layerNo] += nanos;
+        }
+        layersDone.incrementAndGet();
+        bytesDecoded.addAndGet(bytes);
+        pixels.addAndGet(layerPixels);
+        islands.addAndGet(layerIslands);
+        if (startAllocatedBytes >= 0) {
+            allocatedBytes.addAndGet(getThreadAllocatedBytes() - startAllocatedBytes);
+        }
+    }
+
+    /**
+     * Remove the completed phases, when the metrics are used for another file.
+     */
+    public void clear() {
+        synchronized (phases) {
+            phases.clear();
+        }
+    }
+
+    public PhotonMetricsSummary getSummary() {
+        return new PhotonMetricsSummary(getPhases());
+    }
+
+    /**
+     * Get the throughput and time left of the running phase for a progress message, empty when not known.
+     */
+    public String getProgressInformation() {
+        double eta = getEtaSeconds();
+        if (eta < 0) {
+            return "";
+        }
+        return String.format(Locale.ROOT, "%.1f layers/s, %.0f s left", getLayersPerSecond(), eta);
+    }
+
+    /**
+     * Register the metrics with the platform MBean server, replacing metrics registered with the same name.
+     */
+    public void register(String name) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        unregister();
+        ObjectName newName = new ObjectName("photon.file:type=PhotonFileMetrics,name=" + ObjectName.quote(name));
+        if (server.isRegistered(newName)) {
+            server.unregisterMBean(newName);
+        }
+        server.registerMBean(this, newName);
+        objectName = newName;
+    }
+
+    public void unregister() throws Exception {
+        if (objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    @Override
+    public String getPhase() {
+        return phase;
+    }
+
+    @Override
+    public int getLayerCount() {
+        return layerCount;
+    }
+
+    @Override
+    public int getLayersDone() {
+        return layersDone.get();
+    }
+
+    @Override
+    public double getElapsedSeconds() {
+        return phase.isEmpty() ? 0 : (System.nanoTime() - phaseStart) / 1e9;
+    }
+
+    @Override
+    public double getLayersPerSecond() {
+        double elapsed = getElapsedSeconds();
+        return elapsed > 0 ? layersDone.get() / elapsed : 0;
+    }
+
+    @Override
+    public double getEtaSeconds() {
+        int done = layersDone.get();
+        if (phase.isEmpty() || done == 0 || done > layerCount) {
+            return -1;
+        }
+        return getElapsedSeconds() * (layerCount - done) / done;
+    }
+
+    @Override
+    public long getBytesDecoded() {
+        return bytesDecoded.get();
+    }
+
+    @Override
+    public long getPixelsProcessed() {
+        return pixels.get();
+    }
+
+    @Override
+    public long getIslands() {
+        return islands.get();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    @Override
+    public List<PhotonPhaseMetrics> getPhases() {
+        synchronized (phases) {
+            return new ArrayList<>(phases);
+        }
+    }
+
+    private static boolean isAllocationCounted() {
+        return THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).isThreadAllocatedMemoryEnabled();
+    }
+}
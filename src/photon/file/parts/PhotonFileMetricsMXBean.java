@@ -0,0 +1,63 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file.parts;
+
+import java.util.List;
+
+/**
+ * The metrics of a photon file exposed through JMX, the progress of the running phase and the completed phases.
+ */
+public interface PhotonFileMetricsMXBean {
+    /**
+     * Get the name of the running phase, or an empty string when no phase is running.
+     */
+    String getPhase();
+
+    int getLayerCount();
+
+    int getLayersDone();
+
+    double getElapsedSeconds();
+
+    double getLayersPerSecond();
+
+    /**
+     * Get the estimated seconds left of the running phase, or -1 when it is not known yet.
+     */
+    double getEtaSeconds();
+
+    long getBytesDecoded();
+
+    long getPixelsProcessed();
+
+    long getIslands();
+
+    /**
+     * Get the bytes allocated by the layer work of the running phase, or -1 if the JVM does not count allocations.
+     */
+    long getAllocatedBytes();
+
+    List<PhotonPhaseMetrics> getPhases();
+}
@@ -27,7 +27,7 @@ package photon.file.parts;
 import photon.application.extensions.prusasl1.file.utilites.RenderedImage;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -48,8 +48,8 @@ public class PhotonFilePreview {
     private int p3;
     private int p4;
 
-    public PhotonFilePreview(int previewAddress, byte[] file) throws Exception {
-        byte[] data = Arrays.copyOfRange(file, previewAddress, previewAddress + 32);
+    public PhotonFilePreview(int previewAddress, ByteBuffer file) throws Exception {
+        byte[] data = PhotonFileBuffer.copyOfRange(file, previewAddress, previewAddress + 32);
         PhotonInputStream ds = new PhotonInputStream(new ByteArrayInputStream(data));
 
         resolutionX = ds.readInt();
@@ -61,7 +61,7 @@ public class PhotonFilePreview {
         p3 = ds.readInt();
         p4 = ds.readInt();
 
-        rawImageData = Arrays.copyOfRange(file, imageAddress, imageAddress + dataSize);
+        rawImageData = PhotonFileBuffer.copyOfRange(file, imageAddress, imageAddress + dataSize);
 
         decodeImageData();
     }
@@ -90,13 +90,8 @@ public class PhotonFilePreview {
         p3 = 0;
         p4 = 0;
 
-        // encode image data
-        imageData = image.getImageData();
-        encodeImageData();
-
-        // re-decode image. verification only. not realy needed.
-        imageData = null;
-        decodeImageData();
+        // encode image data, which also gives the decoded image
+        encodeImageData(image.getImageData());
     }
 
     public void save(PhotonOutputStream os, int startAddress) throws Exception {
@@ -157,41 +152,66 @@ public class PhotonFilePreview {
         imageData = null;
     }
 
-    private void encodeImageData() {
-        final ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-        for(int i = 0; i < imageData.length; i++) {
-            final int pixel = imageData[i];
-
-            // read components
-            int red = (pixel >> 16) & 0xFF;
-            int green = (pixel >> 8) & 0xFF;
-            int blue = pixel & 0xFF;
+    /**
+     * Encode the pixels as 15 bit colors, where runs of the same color are stored as a color with the repeat flag set
+     * followed by the number of repeats. The decoded image is filled with the reduced colors in the same pass.
+     */
+    private void encodeImageData(final int[] pixels) {
+        // a pixel takes 2 bytes, and a run of 2 or more pixels 4 bytes
+        final byte[] out = new byte[2 * pixels.length];
+        imageData = new int[pixels.length];
+        int ptr = 0;
+
+        int i = 0;
+        while(i < pixels.length) {
+            final int dot = getDot(pixels[i]);
+            final int color = ((dot & 0xF800) << 8) | ((dot & 0x07C0) << 5) | ((dot & 0x001F) << 3);
+
+            // the repeat count has 12 bits
+            int end = i + 1;
+            while(end < pixels.length && end - i < 0x1000 && getDot(pixels[end]) == dot)
+                end++;
+            Arrays.fill(imageData, i, end, color);
+
+            if(end - i > 1) {
+                ptr = write(out, ptr, dot | 0x0020);
+                ptr = write(out, ptr, 0x3000 | (end - i - 1));
+            }
+            else {
+                ptr = write(out, ptr, dot);
+            }
+            i = end;
+        }
 
-            // reduce to 5 bit color
-            red =  map(red, 0, 0xFF, 0, 0x1F) & 0x1F;
-            green = map(green, 0, 0xFF, 0, 0x1F) & 0x1F;
-            blue = map(blue, 0, 0xFF, 0, 0x1F) & 0x1F;
+        rawImageData = Arrays.copyOf(out, ptr);
+        dataSize = ptr;
+    }
 
-            // compose dot
-            int dot = ((red << 11) | (green << 6) | blue) & 0xFFDF;
+    private int getDot(final int pixel) {
+        // read components
+        int red = (pixel >> 16) & 0xFF;
+        int green = (pixel >> 8) & 0xFF;
+        int blue = pixel & 0xFF;
 
-            write(out, dot );
-        }
+        // reduce to 5 bit color
+        red =  map(red, 0, 0xFF, 0, 0x1F) & 0x1F;
+        green = map(green, 0, 0xFF, 0, 0x1F) & 0x1F;
+        blue = map(blue, 0, 0xFF, 0, 0x1F) & 0x1F;
 
-        rawImageData = out.toByteArray();
-        dataSize = rawImageData.length;
+        // compose dot
+        return ((red << 11) | (green << 6) | blue) & 0xFFDF;
     }
 
     private int map(int x, int in_min, int in_max, int out_min, int out_max)  {
         return (x - in_min) * (out_max - out_min) / (in_max - in_min) + out_min;
     }
 
-    private void write(final ByteArrayOutputStream out, final int bytes) {
+    private int write(final byte[] out, int ptr, final int bytes) {
         // write low byte
-        out.write( (byte) bytes );
+        out[ptr++] = (byte) bytes;
 
         // write high byte
-        out.write( (byte) (bytes >> 8)  );
+        out[ptr++] = (byte) (bytes >> 8);
+        return ptr;
     }
 }
@@ -27,7 +27,7 @@ package photon.file.parts;
 import photon.application.extensions.prusasl1.file.parts.PrusaSL1FileHeader;
 
 import java.io.ByteArrayInputStream;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 public class PhotonFilePrintParameters {
     public float bottomLiftDistance = 5.0f;
@@ -73,8 +73,8 @@ public class PhotonFilePrintParameters {
         bottomLayerCount = header.getBottomLayers();
     }
 
-    public PhotonFilePrintParameters(int parametersPos, byte[] file) throws Exception {
-        byte[] data = Arrays.copyOfRange(file, parametersPos, parametersPos + getByteSize());
+    public PhotonFilePrintParameters(int parametersPos, ByteBuffer file) throws Exception {
+        byte[] data = PhotonFileBuffer.copyOfRange(file, parametersPos, parametersPos + getByteSize());
         PhotonInputStream ds = new PhotonInputStream(new ByteArrayInputStream(data));
 
         bottomLiftDistance = ds.readFloat();
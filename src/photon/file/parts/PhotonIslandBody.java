@@ -0,0 +1,93 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file.parts;
+
+/**
+ * An unsupported body, a volume of connected pixels that starts as an island and grows upward through the layers.
+ */
+public class PhotonIslandBody {
+    private int startLayer;
+    private int lastLayer;
+    private long volume;
+    private int supportedLayer;
+    private int x;
+    private int y;
+
+    public PhotonIslandBody(int startLayer, int lastLayer, long volume, int supportedLayer, int x, int y) {
+        this.startLayer = startLayer;
+        this.lastLayer = lastLayer;
+        this.volume = volume;
+        this.supportedLayer = supportedLayer;
+        this.x = x;
+        this.y = y;
+    }
+
+    public int getStartLayer() {
+        return startLayer;
+    }
+
+    public int getLastLayer() {
+        return lastLayer;
+    }
+
+    /**
+     * Get the number of layers the body is printed without support.
+     */
+    public int getHeight() {
+        return lastLayer - startLayer + 1;
+    }
+
+    /**
+     * Get the number of pixels in the body, summed over its layers.
+     */
+    public long getVolume() {
+        return volume;
+    }
+
+    /**
+     * Get the layer where the body joins supported material, or -1 if it never does.
+     */
+    public int getSupportedLayer() {
+        return supportedLayer;
+    }
+
+    public boolean isSupported() {
+        return supportedLayer >= 0;
+    }
+
+    /**
+     * Get the x position of the first pixel of the body in the start layer.
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Get the y position of the first pixel of the body in the start layer.
+     */
+    public int getY() {
+        return y;
+    }
+}
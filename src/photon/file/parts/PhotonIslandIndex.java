@@ -0,0 +1,254 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file.parts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An index of the distinct islands in a layer, labelled from the island rows.
+ * <p/>
+ * Each island row is split in runs of island pixels, and runs touching a run in the row above are joined to the same
+ * island. The runs are stored grouped by island, so the pixels of a single island can be visited without scanning the
+ * layer. Island ids are given in scan order, from the top left.
+ */
+public class PhotonIslandIndex {
+    private int count;
+
+    private int[] area;
+    private int[] minX;
+    private int[] minY;
+    private int[] maxX;
+    private int[] maxY;
+    private float[] centroidX;
+    private float[] centroidY;
+
+    private int[] firstRun;
+    private int[] runY;
+    private int[] runStart;
+    private int[] runEnd;
+
+    public PhotonIslandIndex(ArrayList<BitSet> islandRows) {
+        int capacity = 64;
+        int[] y = new int[capacity];
+        int[] start = new int[capacity];
+        int[] end = new int[capacity];
+        int[] parent = new int[capacity];
+        int runs = 0;
+
+        int previousFrom = 0;
+        int previousTo = 0;
+        for (int row = 0; row < islandRows.size(); row++) {
+            BitSet bits = islandRows.get(row);
+            int rowFrom = runs;
+            int previous = previousFrom;
+            int x = bits != null ? bits.nextSetBit(0) : -1;
+            while (x >= 0) {
+                int x2 = bits.nextClearBit(x);
+                if (runs == capacity) {
+                    capacity *= 2;
+                    y = Arrays.copyOf(y, capacity);
+                    start = Arrays.copyOf(start, capacity);
+                    end = Arrays.copyOf(end, capacity);
+                    parent = Arrays.copyOf(parent, capacity);
+                }
+                y[runs] = row;
+                start[runs] = x;
+                end[runs] = x2;
+                parent[runs] = runs;
+
+                // join with the runs above that overlap this run
+                while (previous < previousTo && end[previous] <= x) {
+                    previous++;
+                }
+                for (int above = previous; above < previousTo && start[above] < x2; above++) {
+                    union(parent, above, runs);
+                }
+
+                runs++;
+                x = bits.nextSetBit(x2);
+            }
+            previousFrom = rowFrom;
+            previousTo = runs;
+        }
+
+        // give each island an id in scan order, and count its runs
+        int[] label = new int[runs];
+        Arrays.fill(label, -1);
+        int[] islandOf = new int[runs];
+        int[] runCount = new int[runs + 1];
+        for (int run = 0; run < runs; run++) {
+            int root = find(parent, run);
+            if (label[root] < 0) {
+                label[root] = count++;
+            }
+            islandOf[run] = label[root];
+            runCount[islandOf[run]]++;
+        }
+
+        firstRun = new int[count + 1];
+        for (int id = 0; id < count; id++) {
+            firstRun[id + 1] = firstRun[id] + runCount[id];
+        }
+
+        runY = new int[runs];
+        runStart = new int[runs];
+        runEnd = new int[runs];
+        area = new int[count];
+        minX = new int[count];
+        minY = new int[count];
+        maxX = new int[count];
+        maxY = new int[count];
+        centroidX = new float[count];
+        centroidY = new float[count];
+        Arrays.fill(minX, Integer.MAX_VALUE);
+        Arrays.fill(minY, Integer.MAX_VALUE);
+        Arrays.fill(maxX, -1);
+        Arrays.fill(maxY, -1);
+
+        long[] sumX = new long[count];
+        long[] sumY = new long[count];
+        int[] next = Arrays.copyOf(firstRun, count);
+        for (int run = 0; run < runs; run++) {
+            int id = islandOf[run];
+            int index = next[id]++;
+            runY[index] = y[run];
+            runStart[index] = start[run];
+            runEnd[index] = end[run];
+
+            int length = end[run] - start[run];
+            area[id] += length;
+            minX[id] = Integer.min(minX[id], start[run]);
+            maxX[id] = Integer.max(maxX[id], end[run] - 1);
+            minY[id] = Integer.min(minY[id], y[run]);
+            maxY[id] = Integer.max(maxY[id], y[run]);
+            sumX[id] += (long) (start[run] + end[run] - 1) * length / 2;
+            sumY[id] += (long) y[run] * length;
+        }
+
+        for (int id = 0; id < count; id++) {
+            centroidX[id] = (float) sumX[id] / area[id];
+            centroidY[id] = (float) sumY[id] / area[id];
+        }
+    }
+
+    private static int find(int[] parent, int run) {
+        while (parent[run] != run) {
+            parent[run] = parent[parent[run]];
+            run = parent[run];
+        }
+        return run;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parent[rootA] = rootB;
+        }
+    }
+
+    /**
+     * Get the island containing a pixel.
+     * @return the island id, or -1 if the pixel is not part of an island
+     */
+    public int find(int x, int y) {
+        for (int id = 0; id < count; id++) {
+            if (x >= minX[id] && x <= maxX[id] && y >= minY[id] && y <= maxY[id]) {
+                for (int run = firstRun[id]; run < firstRun[id + 1]; run++) {
+                    if (runY[run] == y && x >= runStart[run] && x < runEnd[run]) {
+                        return id;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getArea(int id) {
+        return area[id];
+    }
+
+    public int getMinX(int id) {
+        return minX[id];
+    }
+
+    public int getMinY(int id) {
+        return minY[id];
+    }
+
+    public int getMaxX(int id) {
+        return maxX[id];
+    }
+
+    public int getMaxY(int id) {
+        return maxY[id];
+    }
+
+    public float getCentroidX(int id) {
+        return centroidX[id];
+    }
+
+    public float getCentroidY(int id) {
+        return centroidY[id];
+    }
+
+    /**
+     * Get the first run of an island, the runs of an island are from getFirstRun(id) to getFirstRun(id + 1).
+     */
+    public int getFirstRun(int id) {
+        return firstRun[id];
+    }
+
+    public int getRunY(int run) {
+        return runY[run];
+    }
+
+    public int getRunStart(int run) {
+        return runStart[run];
+    }
+
+    public int getRunEnd(int run) {
+        return runEnd[run];
+    }
+
+    public int getLargest() {
+        int largest = -1;
+        for (int id = 0; id < count; id++) {
+            if (largest < 0 || area[id] > area[largest]) {
+                largest = id;
+            }
+        }
+        return largest;
+    }
+
+}
@@ -0,0 +1,422 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file.parts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tracks islands through the layers as 3D bodies.
+ * <p/>
+ * The layers are added in order. Each layer is split in runs of solid pixels, joined into components within the
+ * layer, and every component is linked to the runs it overlaps in the layer below. A component without material
+ * below starts a new body, a component on top of a single body extends it, and a component on top of several
+ * bodies merges them. A body ends when it joins supported material or when no material is printed on top of it.
+ * Only the runs of the previous layer and the open bodies are kept, so the memory does not grow with the layer count.
+ */
+public class PhotonIslandTracker {
+    private static final int SUPPORTED = -1;
+    private static final int UNKNOWN = -2;
+
+    private int width;
+    private int height;
+    private int layerNo;
+
+    // runs of solid pixels in the current layer, and their component or body
+    private int runs;
+    private int[] runY;
+    private int[] runStart;
+    private int[] runEnd;
+    private int[] runParent;
+    private int[] runLabel;
+    private int[] rowFirst;
+
+    // runs of the previous layer, labelled with their body or SUPPORTED
+    private int previousRuns;
+    private int[] previousY;
+    private int[] previousStart;
+    private int[] previousEnd;
+    private int[] previousLabel;
+    private int[] previousRowFirst;
+
+    // per component state, indexed by the root run of the component
+    private int[] componentBody;
+    private boolean[] componentSupported;
+    private int[] componentArea;
+
+    // open bodies
+    private int bodies;
+    private int[] bodyParent;
+    private int[] bodyStart;
+    private int[] bodyLast;
+    private long[] bodyVolume;
+    private boolean[] bodySupported;
+    private int[] bodyX;
+    private int[] bodyY;
+
+    private ArrayList<PhotonIslandBody> islandBodies = new ArrayList<>();
+
+    public PhotonIslandTracker(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        int capacity = 1024;
+        runY = new int[capacity];
+        runStart = new int[capacity];
+        runEnd = new int[capacity];
+        runParent = new int[capacity];
+        runLabel = new int[capacity];
+        previousY = new int[capacity];
+        previousStart = new int[capacity];
+        previousEnd = new int[capacity];
+        previousLabel = new int[capacity];
+        componentBody = new int[capacity];
+        componentSupported = new boolean[capacity];
+        componentArea = new int[capacity];
+        rowFirst = new int[height + 1];
+        previousRowFirst = new int[height + 1];
+
+        allocateBodies(64);
+    }
+
+    /**
+     * Add the next layer, from its calculated layer image.
+     */
+    public void add(byte[] packedLayerImage) {
+        decode(packedLayerImage);
+        joinRuns();
+        linkComponents();
+        labelComponents();
+        closeBodies();
+        swap();
+        layerNo++;
+    }
+
+    /**
+     * Close the bodies still open after the last layer, and get all the bodies found.
+     */
+    public List<PhotonIslandBody> getIslandBodies() {
+        for (int b = 0; b < bodies; b++) {
+            if (bodyParent[b] == b) {
+                close(b, -1);
+            }
+        }
+        bodies = 0;
+        previousRuns = 0;
+        return islandBodies;
+    }
+
+    private void decode(byte[] packedLayerImage) {
+        runs = 0;
+        if (packedLayerImage != null) {
+            int x = 0;
+            int y = 0;
+            int solidX = -1;
+            for (int i = 0; i < packedLayerImage.length && y < height; i++) {
+                byte rle = packedLayerImage[i];
+                byte colorCode = (byte) ((rle & 0x60) >> 5);
+                int length = rle & 0x1F;
+                if ((rle & 0x80) == 0x80) {
+                    i++;
+                    length = (length << 8) | packedLayerImage[i] & 0x00ff;
+                }
+
+                if (colorCode != PhotonLayer.OFF) {
+                    if (solidX < 0) {
+                        solidX = x;
+                    }
+                } else if (solidX >= 0) {
+                    addRun(y, solidX, x);
+                    solidX = -1;
+                }
+
+                x += length;
+                if (x >= width) {
+                    if (solidX >= 0) {
+                        addRun(y, solidX, width);
+                        solidX = -1;
+                    }
+                    y++;
+                    x = 0;
+                }
+            }
+        }
+
+        int run = 0;
+        for (int y = 0; y <= height; y++) {
+            while (run < runs && runY[run] < y) {
+                run++;
+            }
+            rowFirst[y] = run;
+        }
+    }
+
+    private void addRun(int y, int start, int end) {
+        if (runs == runY.length) {
+            int capacity = runs * 2;
+            runY = Arrays.copyOf(runY, capacity);
+            runStart = Arrays.copyOf(runStart, capacity);
+            runEnd = Arrays.copyOf(runEnd, capacity);
+            runParent = Arrays.copyOf(runParent, capacity);
+            runLabel = Arrays.copyOf(runLabel, capacity);
+            componentBody = new int[capacity];
+            componentSupported = new boolean[capacity];
+            componentArea = new int[capacity];
+        }
+        runY[runs] = y;
+        runStart[runs] = start;
+        runEnd[runs] = end;
+        runParent[runs] = runs;
+        runs++;
+    }
+
+    /**
+     * Join the runs of the layer touching a run in the row above into components.
+     */
+    private void joinRuns() {
+        for (int y = 1; y < height; y++) {
+            int above = rowFirst[y - 1];
+            int aboveEnd = rowFirst[y];
+            for (int run = rowFirst[y]; run < rowFirst[y + 1] && above < aboveEnd; run++) {
+                while (above < aboveEnd && runEnd[above] <= runStart[run]) {
+                    above++;
+                }
+                for (int a = above; a < aboveEnd && runStart[a] < runEnd[run]; a++) {
+                    union(runParent, a, run);
+                }
+            }
+        }
+        for (int run = 0; run < runs; run++) {
+            componentBody[run] = -1;
+            componentSupported[run] = layerNo == 0;
+            componentArea[run] = 0;
+            runLabel[run] = UNKNOWN;
+        }
+        for (int run = 0; run < runs; run++) {
+            componentArea[find(runParent, run)] += runEnd[run] - runStart[run];
+        }
+    }
+
+    /**
+     * Link each component to the bodies and supported material below it, merging bodies joined by a component.
+     */
+    private void linkComponents() {
+        for (int y = 0; y < height; y++) {
+            int below = previousRowFirst[y];
+            int belowEnd = previousRowFirst[y + 1];
+            for (int run = rowFirst[y]; run < rowFirst[y + 1] && below < belowEnd; run++) {
+                while (below < belowEnd && previousEnd[below] <= runStart[run]) {
+                    below++;
+                }
+                int component = -1;
+                for (int b = below; b < belowEnd && previousStart[b] < runEnd[run]; b++) {
+                    if (component < 0) {
+                        component = find(runParent, run);
+                    }
+                    if (previousLabel[b] == SUPPORTED) {
+                        componentSupported[component] = true;
+                    } else {
+                        int body = find(bodyParent, previousLabel[b]);
+                        if (componentBody[component] < 0) {
+                            componentBody[component] = body;
+                        } else {
+                            componentBody[component] = mergeBodies(componentBody[component], body);
+                        }
+                    }
+                }
+            }
+        }
+
+        // a body is supported as soon as one of its components touches supported material
+        for (int run = 0; run < runs; run++) {
+            if (runParent[run] == run && componentSupported[run] && componentBody[run] >= 0) {
+                bodySupported[find(bodyParent, componentBody[run])] = true;
+            }
+        }
+    }
+
+    private void labelComponents() {
+        for (int run = 0; run < runs; run++) {
+            int component = find(runParent, run);
+            if (runLabel[component] == UNKNOWN) {
+                int label;
+                if (componentSupported[component]) {
+                    label = SUPPORTED;
+                } else if (componentBody[component] >= 0) {
+                    int body = find(bodyParent, componentBody[component]);
+                    if (bodySupported[body]) {
+                        label = SUPPORTED;
+                    } else {
+                        bodyVolume[body] += componentArea[component];
+                        bodyLast[body] = layerNo;
+                        label = body;
+                    }
+                } else {
+                    label = newBody(runStart[run], runY[run], componentArea[component]);
+                }
+                runLabel[component] = label;
+            }
+            runLabel[run] = runLabel[component];
+        }
+    }
+
+    /**
+     * Close the bodies that are supported or not printed in this layer, and compact the open bodies.
+     */
+    private void closeBodies() {
+        int[] map = new int[bodies];
+        int open = 0;
+        for (int b = 0; b < bodies; b++) {
+            map[b] = -1;
+            if (bodyParent[b] == b) {
+                if (bodySupported[b]) {
+                    close(b, layerNo);
+                } else if (bodyLast[b] < layerNo) {
+                    close(b, -1);
+                } else {
+                    map[b] = open;
+                    bodyParent[open] = open;
+                    bodyStart[open] = bodyStart[b];
+                    bodyLast[open] = bodyLast[b];
+                    bodyVolume[open] = bodyVolume[b];
+                    bodySupported[open] = false;
+                    bodyX[open] = bodyX[b];
+                    bodyY[open] = bodyY[b];
+                    open++;
+                }
+            }
+        }
+        for (int run = 0; run < runs; run++) {
+            if (runLabel[run] >= 0) {
+                runLabel[run] = map[runLabel[run]];
+            }
+        }
+        bodies = open;
+    }
+
+    private void close(int body, int supportedLayer) {
+        islandBodies.add(new PhotonIslandBody(bodyStart[body], bodyLast[body], bodyVolume[body], supportedLayer, bodyX[body], bodyY[body]));
+    }
+
+    private void swap() {
+        int[] y = previousY;
+        int[] start = previousStart;
+        int[] end = previousEnd;
+        int[] label = previousLabel;
+        int[] first = previousRowFirst;
+        previousY = runY;
+        previousStart = runStart;
+        previousEnd = runEnd;
+        previousLabel = runLabel;
+        previousRowFirst = rowFirst;
+        previousRuns = runs;
+        runY = y;
+        runStart = start;
+        runEnd = end;
+        runLabel = label;
+        rowFirst = first;
+
+        if (runParent.length != runY.length) {
+            int capacity = Integer.max(runParent.length, runY.length);
+            runY = Arrays.copyOf(runY, capacity);
+            runStart = Arrays.copyOf(runStart, capacity);
+            runEnd = Arrays.copyOf(runEnd, capacity);
+            runLabel = Arrays.copyOf(runLabel, capacity);
+            runParent = Arrays.copyOf(runParent, capacity);
+            componentBody = new int[capacity];
+            componentSupported = new boolean[capacity];
+            componentArea = new int[capacity];
+        }
+        runs = 0;
+    }
+
+    private int newBody(int x, int y, int area) {
+        if (bodies == bodyParent.length) {
+            allocateBodies(bodies * 2);
+        }
+        bodyParent[bodies] = bodies;
+        bodyStart[bodies] = layerNo;
+        bodyLast[bodies] = layerNo;
+        bodyVolume[bodies] = area;
+        bodySupported[bodies] = false;
+        bodyX[bodies] = x;
+        bodyY[bodies] = y;
+        return bodies++;
+    }
+
+    private void allocateBodies(int capacity) {
+        if (bodyParent == null) {
+            bodyParent = new int[capacity];
+            bodyStart = new int[capacity];
+            bodyLast = new int[capacity];
+            bodyVolume = new long[capacity];
+            bodySupported = new boolean[capacity];
+            bodyX = new int[capacity];
+            bodyY = new int[capacity];
+        } else {
+            bodyParent = Arrays.copyOf(bodyParent, capacity);
+            bodyStart = Arrays.copyOf(bodyStart, capacity);
+            bodyLast = Arrays.copyOf(bodyLast, capacity);
+            bodyVolume = Arrays.copyOf(bodyVolume, capacity);
+            bodySupported = Arrays.copyOf(bodySupported, capacity);
+            bodyX = Arrays.copyOf(bodyX, capacity);
+            bodyY = Arrays.copyOf(bodyY, capacity);
+        }
+    }
+
+    private int mergeBodies(int a, int b) {
+        a = find(bodyParent, a);
+        b = find(bodyParent, b);
+        if (a == b) {
+            return a;
+        }
+        int root = bodyStart[a] <= bodyStart[b] ? a : b;
+        int other = root == a ? b : a;
+        bodyParent[other] = root;
+        bodyVolume[root] += bodyVolume[other];
+        bodyLast[root] = Integer.max(bodyLast[root], bodyLast[other]);
+        return root;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parent[rootA] = rootB;
+        }
+    }
+
+}
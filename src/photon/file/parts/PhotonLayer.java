@@ -26,6 +26,9 @@ package photon.file.parts;
 
 import java.awt.*;
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -40,6 +43,8 @@ public class PhotonLayer {
     public final static byte ISLAND = 0x02;
     public final static byte CONNECTED = 0x03;
 
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
     private int width;
     private int height;
     private int islandCount = 0;
@@ -48,11 +53,6 @@ public class PhotonLayer {
     private int[] pixels;
     private int[] rowIslands;
 
-    private static byte[] emptyRow;
-    private static int[] emptyCol;
-    
-    private static byte[] scratchPad;
-
     public PhotonLayer(int width, int height) {
         this.width = width;
         this.height = height;
@@ -60,21 +60,12 @@ public class PhotonLayer {
         iArray = new byte[height][width];
         pixels = new int[height];
         rowIslands = new int[height];
-
-        if (emptyRow == null || emptyRow.length < width) {
-            emptyRow = new byte[width];
-        }
-
-        if (emptyCol == null || emptyCol.length < height) {
-            emptyCol = new int[height];
-        }
-        
-        if (scratchPad == null || scratchPad.length < width * height) {
-        	scratchPad = new byte[width * height];
-        }
     }
 
     public void clear() {
+        PhotonLayerBuffers buffers = PhotonLayerBuffers.get();
+        byte[] emptyRow = buffers.getEmptyRow(width);
+        int[] emptyCol = buffers.getEmptyCol(height);
         for (int y = 0; y < height; y++) {
         	System.arraycopy(emptyRow, 0, iArray[y], 0, width);
         }
@@ -111,21 +102,23 @@ public class PhotonLayer {
     }
 
 
+    /**
+     * Connect islands to the supported pixels.
+     * <p/>
+     * Every island pixel next to a supported or connected pixel starts a scanline flood fill, that turns the whole
+     * island area into connected pixels. The fill uses an explicit stack of spans, so it runs in a single pass
+     * without recursion, also on long thin features.
+     */
     public void reduce() {
-        // Double reduce to handle single line connections.
-        for (int i = 0; i < 2; i++) {
-            if (islandCount > 0) {
-                for (int y = 0; y < height; y++) {
-                    if (rowIslands[y] > 0) {
-                        for (int x = 0; x < width; x++) {
-                            if (iArray[y][x] == ISLAND) {
-                                if (connected(x, y)) {
-                                    makeConnected(x, y);
-                                    checkUp(x, y);
-                                    if (rowIslands[y] == 0) {
-                                        break;
-                                    }
-                                }
+        if (islandCount > 0) {
+            int[] stack = new int[256];
+            for (int y = 0; y < height; y++) {
+                if (rowIslands[y] > 0) {
+                    for (int x = 0; x < width; x++) {
+                        if (iArray[y][x] == ISLAND && connected(x, y)) {
+                            stack = fill(x, y, stack);
+                            if (rowIslands[y] == 0) {
+                                break;
                             }
                         }
                     }
@@ -134,41 +127,50 @@ public class PhotonLayer {
         }
     }
 
-    private void checkUp(int x, int y) {
-        if (y > 0 && rowIslands[y - 1] > 0 && iArray[y - 1][x] == ISLAND) {
-            makeConnected(x, y - 1);
-            checkUp(x, y - 1);
-        }
-        if (x > 0 && rowIslands[y] > 0 && iArray[y][x - 1] == ISLAND) {
-            makeConnected(x - 1, y);
-            checkBackUp(x - 1, y);
-        }
-        if (x < (width-1) && rowIslands[y] > 0 && iArray[y][x + 1] == ISLAND) {
-            makeConnected(x + 1, y);
-            checkFrontUp(x + 1, y);
-        }
-    }
+    private int[] fill(int startX, int startY, int[] stack) {
+        int top = 0;
+        stack[top++] = startY * width + startX;
+        while (top > 0) {
+            int seed = stack[--top];
+            int y = seed / width;
+            int x = seed % width;
+            if (iArray[y][x] != ISLAND) {
+                continue;
+            }
 
-    private void checkBackUp(int x, int y) {
-        if (y > 0 && rowIslands[y - 1] > 0 && iArray[y - 1][x] == ISLAND) {
-            makeConnected(x, y - 1);
-            checkBackUp(x, y - 1);
-        }
-        if (x > 0 && rowIslands[y] > 0 && iArray[y][x - 1] == ISLAND) {
-            makeConnected(x - 1, y);
-            checkBackUp(x - 1, y);
-        }
-    }
+            int left = x;
+            while (left > 0 && iArray[y][left - 1] == ISLAND) {
+                left--;
+            }
+            int right = x;
+            while (right < (width - 1) && iArray[y][right + 1] == ISLAND) {
+                right++;
+            }
+            for (int i = left; i <= right; i++) {
+                makeConnected(i, y);
+            }
 
-    private void checkFrontUp(int x, int y) {
-        if (y > 0 && rowIslands[y - 1] > 0 && iArray[y - 1][x] == ISLAND) {
-            makeConnected(x, y - 1);
-            checkFrontUp(x, y - 1);
-        }
-        if (x < (width-1) && rowIslands[y] > 0 && iArray[y][x + 1] == ISLAND) {
-            makeConnected(x + 1, y);
-            checkFrontUp(x + 1, y);
+            // Push one seed for each island span touching the filled span in the rows above and below
+            for (int ny = y - 1; ny <= y + 1; ny += 2) {
+                if (ny >= 0 && ny < height && rowIslands[ny] > 0) {
+                    boolean inSpan = false;
+                    for (int i = left; i <= right; i++) {
+                        if (iArray[ny][i] == ISLAND) {
+                            if (!inSpan) {
+                                if (top == stack.length) {
+                                    stack = Arrays.copyOf(stack, stack.length * 2);
+                                }
+                                stack[top++] = ny * width + i;
+                                inSpan = true;
+                            }
+                        } else {
+                            inSpan = false;
+                        }
+                    }
+                }
+            }
         }
+        return stack;
     }
 
     private void makeConnected(int x, int y) {
@@ -208,33 +210,47 @@ public class PhotonLayer {
     }
 
     public byte[] packLayerImage() {
+        PhotonLayerBuffers buffers = PhotonLayerBuffers.get();
+        byte[] scratchPad = buffers.growScratchPad(2 * width);
     	int ptr = 0;
         for (int y = 0; y < height; y++) {
+            // a run takes at most 2 bytes, and runs of 2 bytes are longer than 31 pixels
+            if (ptr + 2 * width > scratchPad.length) {
+                scratchPad = buffers.growScratchPad(ptr + 2 * width);
+            }
             if (pixels[y] == 0) {
-                ptr = add(ptr, OFF, width);
+                ptr = add(scratchPad, ptr, OFF, width);
             } else {
-                byte current = OFF;
-                int length = 0;
-                for (int x = 0; x < width; x++) {
-                    byte next = iArray[y][x];
-                    if (next != current) {
-                        if (length > 0) {
-                            ptr = add(ptr, current, length);
-                        }
-                        current = next;
-                        length = 1;
-                    } else {
-                        length++;
-                    }
-                }
-                if (length > 0) {
-                    ptr = add(ptr, current, length);
+                byte[] row = iArray[y];
+                int x = 0;
+                while (x < width) {
+                    int end = runEnd(row, x, width);
+                    ptr = add(scratchPad, ptr, row[x], end - x);
+                    x = end;
                 }
             }
         }
-        byte[] img = new byte[ptr];
-        System.arraycopy(scratchPad, 0, img, 0, ptr);
-        return img;
+        return Arrays.copyOf(scratchPad, ptr);
+    }
+
+    /**
+     * Find the end of the run of pixels starting at x, comparing 8 pixels at a time.
+     */
+    static int runEnd(byte[] row, int x, int width) {
+        byte value = row[x];
+        long pattern = (value & 0xFFL) * 0x0101010101010101L;
+        int end = x + 1;
+        while (end + 8 <= width) {
+            long diff = (long) LONG_VIEW.get(row, end) ^ pattern;
+            if (diff != 0) {
+                return end + (Long.numberOfTrailingZeros(diff) >>> 3);
+            }
+            end += 8;
+        }
+        while (end < width && row[end] == value) {
+            end++;
+        }
+        return end;
     }
 
     public void unpackLayerImage(byte[] packedLayerImage) {
@@ -281,7 +297,7 @@ public class PhotonLayer {
     }
     
     
-    private int add(int ptr, byte current, int length) {
+    static int add(byte[] scratchPad, int ptr, byte current, int length) {
         if (length < 32) {
             scratchPad[ptr++] = (byte) ((current << 5) | (length & 0x1f));
         } else {
@@ -356,6 +372,31 @@ public class PhotonLayer {
         return count;
     }
 
+    /**
+     * Remove the islands found in the index, only visiting the island pixels.
+     */
+    public int removeIslands(PhotonIslandIndex islandIndex) {
+        int count = 0;
+        for (int id = 0; id < islandIndex.size(); id++) {
+            count += removeIsland(islandIndex, id);
+        }
+        return count;
+    }
+
+    public int removeIsland(PhotonIslandIndex islandIndex, int id) {
+        int count = 0;
+        for (int run = islandIndex.getFirstRun(id); run < islandIndex.getFirstRun(id + 1); run++) {
+            int y = islandIndex.getRunY(run);
+            for (int x = islandIndex.getRunStart(run); x < islandIndex.getRunEnd(run); x++) {
+                if (iArray[y][x] == ISLAND) {
+                    remove(x, y, ISLAND);
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
     public int fixlayer() {
         PhotonMatix photonMatix = new PhotonMatix();
         ArrayList<PhotonDot> dots = new ArrayList<>();
@@ -395,38 +436,31 @@ public class PhotonLayer {
     }
 
     public byte[] packImageData() {
-    	
+        PhotonLayerBuffers buffers = PhotonLayerBuffers.get();
+        byte[] scratchPad = buffers.growScratchPad(width);
     	int ptr = 0;
     
         for (int y = 0; y < height; y++) {
+            // a run takes at most one byte per pixel
+            if (ptr + width > scratchPad.length) {
+                scratchPad = buffers.growScratchPad(ptr + width);
+            }
             if (pixels[y] == 0) {
-                ptr = addPhotonRLE(ptr, true, width);
+                ptr = addPhotonRLE(scratchPad, ptr, true, width);
             } else {
-                byte current = OFF;
-                int length = 0;
-                for (int x = 0; x < width; x++) {
-                    byte next = iArray[y][x];
-                    if (next != current) {
-                        if (length > 0) {
-                            ptr = addPhotonRLE(ptr, current==OFF, length);
-                        }
-                        current = next;
-                        length = 1;
-                    } else {
-                        length++;
-                    }
-                }
-                if (length > 0) {
-                    ptr = addPhotonRLE(ptr, current==OFF, length);
+                byte[] row = iArray[y];
+                int x = 0;
+                while (x < width) {
+                    int end = runEnd(row, x, width);
+                    ptr = addPhotonRLE(scratchPad, ptr, row[x] == OFF, end - x);
+                    x = end;
                 }
             }
         }
-        byte[] img = new byte[ptr];
-        System.arraycopy(scratchPad, 0, img, 0, ptr);
-        return img;
+        return Arrays.copyOf(scratchPad, ptr);
     }
 
-    private int addPhotonRLE(int ptr, boolean off, int length) {
+    static int addPhotonRLE(byte[] scratchPad, int ptr, boolean off, int length) {
     	
         while (length > 0) {
             int lineLength = length < 125 ? length : 125; // max storage length of 0x7D (125) ?? Why not 127?
@@ -0,0 +1,88 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file.parts;
+
+import java.util.Arrays;
+
+/**
+ * Per thread work buffers used when a PhotonLayer is cleared or packed.
+ * <p/>
+ * Every thread borrows its own arena, so layers can be encoded and decoded on many threads at once,
+ * while a worker that handles many layers only allocates the buffers once.
+ */
+public class PhotonLayerBuffers {
+    private static final ThreadLocal<PhotonLayerBuffers> arena = ThreadLocal.withInitial(PhotonLayerBuffers::new);
+
+    private byte[] scratchPad = new byte[0];
+    private byte[] dataPad = new byte[0];
+    private byte[] emptyRow = new byte[0];
+    private int[] emptyCol = new int[0];
+
+    public static PhotonLayerBuffers get() {
+        return arena.get();
+    }
+
+    /**
+     * Release the buffers of the current thread, when a long lived thread has finished working on the layers.
+     * The calculation pools are shut down when they are done, so their threads release the buffers as they end.
+     */
+    public static void release() {
+        arena.remove();
+    }
+
+    /**
+     * Get the scratch pad with room for at least size bytes, keeping its content when it grows.
+     */
+    public byte[] growScratchPad(int size) {
+        if (scratchPad.length < size) {
+            scratchPad = Arrays.copyOf(scratchPad, Integer.max(size, scratchPad.length * 2));
+        }
+        return scratchPad;
+    }
+
+    /**
+     * Get a second scratch pad, for encoders that write the layer image and the image data in the same pass.
+     */
+    public byte[] growDataPad(int size) {
+        if (dataPad.length < size) {
+            dataPad = Arrays.copyOf(dataPad, Integer.max(size, dataPad.length * 2));
+        }
+        return dataPad;
+    }
+
+    public byte[] getEmptyRow(int width) {
+        if (emptyRow.length < width) {
+            emptyRow = new byte[width];
+        }
+        return emptyRow;
+    }
+
+    public int[] getEmptyCol(int height) {
+        if (emptyCol.length < height) {
+            emptyCol = new int[height];
+        }
+        return emptyCol;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file.parts;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A summary of the phases run on a photon file, for showing the throughput and where the time was spent.
+ */
+public class PhotonMetricsSummary {
+    private List<PhotonPhaseMetrics> phases;
+
+    public PhotonMetricsSummary(List<PhotonPhaseMetrics> phases) {
+        this.phases = phases;
+    }
+
+    public List<PhotonPhaseMetrics> getPhases() {
+        return phases;
+    }
+
+    /**
+     * Get the last completed phase with the name, or null if it has not been run.
+     */
+    public PhotonPhaseMetrics getPhase(String name) {
+        for (int i = phases.size() - 1; i >= 0; i--) {
+            if (phases.get(i).getName().equals(name)) {
+                return phases.get(i);
+            }
+        }
+        return null;
+    }
+
+    public double getTotalSeconds() {
+        long nanos = 0;
+        for (PhotonPhaseMetrics phase : phases) {
+            nanos += phase.getNanos();
+        }
+        return nanos / 1e9;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (PhotonPhaseMetrics phase : phases) {
+            builder.append(phase).append("\n");
+        }
+        builder.append(String.format(Locale.ROOT, "total: %.3f s", getTotalSeconds()));
+        return builder.toString();
+    }
+}
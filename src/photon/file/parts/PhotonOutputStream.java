@@ -28,6 +28,7 @@ import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -48,6 +49,22 @@ public class PhotonOutputStream extends OutputStream implements DataOutput {
         outputStream.write(b, off, len);
     }
 
+    public void write(ByteBuffer buffer, int len) throws IOException {
+        if (buffer.hasArray()) {
+            write(buffer.array(), buffer.arrayOffset(), len);
+        } else {
+            ByteBuffer view = buffer.duplicate();
+            view.clear();
+            byte[] chunk = new byte[Integer.min(len, 65536)];
+            while (len > 0) {
+                int length = Integer.min(len, chunk.length);
+                view.get(chunk, 0, length);
+                write(chunk, 0, length);
+                len -= length;
+            }
+        }
+    }
+
     @Override
     public void writeBoolean(boolean v) throws IOException {
         dataOutputStream.writeBoolean(v);
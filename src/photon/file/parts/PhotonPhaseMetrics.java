@@ -0,0 +1,123 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2018 Bonosoft
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package photon.file.parts;
+
+import java.util.Locale;
+
+/**
+ * The metrics of a completed phase, like reading or calculating a file, with the layers that took the longest.
+ */
+public class PhotonPhaseMetrics {
+    private String name;
+    private int layers;
+    private long nanos;
+    private long bytesDecoded;
+    private long pixels;
+    private long islands;
+    private long allocatedBytes;
+    private int[] slowestLayers;
+    private double[] slowestLayerMillis;
+
+    public PhotonPhaseMetrics(String name, int layers, long nanos, long bytesDecoded, long pixels, long islands, long allocatedBytes, int[] slowestLayers, double[] slowestLayerMillis) {
+        this.name = name;
+        this.layers = layers;
+        this.nanos = nanos;
+        this.bytesDecoded = bytesDecoded;
+        this.pixels = pixels;
+        this.islands = islands;
+        this.allocatedBytes = allocatedBytes;
+        this.slowestLayers = slowestLayers;
+        this.slowestLayerMillis = slowestLayerMillis;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the number of layers processed, a layer processed more than once is counted each time.
+     */
+    public int getLayers() {
+        return layers;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public double getSeconds() {
+        return nanos / 1e9;
+    }
+
+    public double getLayersPerSecond() {
+        return nanos > 0 ? layers * 1e9 / nanos : 0;
+    }
+
+    public long getBytesDecoded() {
+        return bytesDecoded;
+    }
+
+    public long getPixels() {
+        return pixels;
+    }
+
+    public long getIslands() {
+        return islands;
+    }
+
+    /**
+     * Get the bytes allocated by the layer work, or -1 if the JVM does not count allocations.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Get the layers that took the longest, slowest first.
+     */
+    public int[] getSlowestLayers() {
+        return slowestLayers;
+    }
+
+    public double[] getSlowestLayerMillis() {
+        return slowestLayerMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format(Locale.ROOT, "%s: %d layers in %.3f s, %.1f layers/s, %.1f MB decoded, %d pixels, %d islands",
+                name, layers, getSeconds(), getLayersPerSecond(), bytesDecoded / 1048576.0, pixels, islands));
+        if (allocatedBytes >= 0) {
+            builder.append(String.format(Locale.ROOT, ", %.1f MB allocated", allocatedBytes / 1048576.0));
+        }
+        if (slowestLayers.length > 0) {
+            builder.append(", slowest layers");
+            for (int i = 0; i < slowestLayers.length; i++) {
+                builder.append(String.format(Locale.ROOT, " %d (%.1f ms)", slowestLayers[i], slowestLayerMillis[i]));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -38,6 +38,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 
@@ -86,8 +87,8 @@ public class PhotonFileHeader implements IFileHeader {
     public PhotonFileMachineInfo photonFileMachineInfo;
 
 
-    public PhotonFileHeader(byte[] file) throws Exception {
-        PhotonInputStream ds = new PhotonInputStream(new ByteArrayInputStream(file));
+    public PhotonFileHeader(ByteBuffer file) throws Exception {
+        PhotonInputStream ds = new PhotonInputStream(PhotonFileBuffer.inputStream(file, 0));
 
         header1 = ds.readInt();
         version = ds.readInt();
@@ -467,7 +468,7 @@ public class PhotonFileHeader implements IFileHeader {
         return projectType == PhotonProjectType.lcdMirror;
     }
 
-    public void readParameters(byte[] file) throws Exception {
+    public void readParameters(ByteBuffer file) throws Exception {
         photonFilePrintParameters = new PhotonFilePrintParameters(getPrintParametersOffsetAddress(), file);
         photonFileMachineInfo = new PhotonFileMachineInfo(getMachineInfoOffsetAddress(), getMachineInfoSize(), file);
     }